@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg;
+
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+/**
+ * The drawing operations that paintImage() makes. SVGAndroidCanvas passes them
+ * on to an android.graphics.Canvas, and SVGRecordingCanvas records them so
+ * that rendering can be inspected and compared without drawing any pixels.
+ * The methods have the same meaning as those of Canvas with the same names.
+ */
+public interface ITpsvgCanvas {
+
+	int save();
+
+	void restore();
+
+	void concat(Matrix matrix);
+
+	void scale(float sx, float sy);
+
+	void rotate(float degrees);
+
+	void translate(float dx, float dy);
+
+	/**
+	 * Copy the current transformation matrix into the supplied matrix.
+	 */
+	void getMatrix(Matrix matrix);
+
+	void drawPath(Path path, Paint paint);
+
+	void drawArc(RectF oval, float startAngle, float sweepAngle,
+			boolean useCenter, Paint paint);
+
+	void drawText(CharSequence text, int start, int end, float x, float y,
+			Paint paint);
+
+	void drawPosText(char[] text, int index, int count, float[] pos,
+			Paint paint);
+}
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.trevorpage.tpsvg;
+
+/**
+ * A controller that drives some or all of a document's animated elements
+ * through an SVGElementState. paintImage() reads the state of each driven
+ * element directly, and only calls the ITpsvgController callbacks for the
+ * elements that aren't driven.
+ */
+public interface ITpsvgStateController extends ITpsvgController {
+
+	/**
+	 * @return The state to draw the document's animated elements with, which
+	 *         must have been created by the document being drawn, or null.
+	 */
+	SVGElementState getElementState();
+}
@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.trevorpage.tpsvg;
+
+/**
+ * A controller that can tell when anything it draws has changed, so that
+ * SVGView can skip rendering a frame that would be the same as the last, and
+ * show its existing bitmap instead.
+ */
+public interface ITpsvgVersionedController extends ITpsvgController {
+
+	/**
+	 * @return A number that changes whenever anything the controller does to
+	 *         the drawing changes, whether through its callbacks or through an
+	 *         SVGElementState. A controller with state in an SVGElementState
+	 *         or SVGStatePublisher can return its version, provided its
+	 *         callbacks draw the same thing every time.
+	 */
+	long getStateVersion();
+}
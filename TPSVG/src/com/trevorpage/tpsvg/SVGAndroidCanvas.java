@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+/**
+ * An ITpsvgCanvas that draws to an android.graphics.Canvas.
+ */
+public class SVGAndroidCanvas implements ITpsvgCanvas {
+
+	private Canvas mCanvas;
+
+	public SVGAndroidCanvas(Canvas canvas) {
+		mCanvas = canvas;
+	}
+
+	public Canvas getCanvas() {
+		return mCanvas;
+	}
+
+	/**
+	 * Direct drawing to a different Canvas, so that the wrapper can be
+	 * reused.
+	 */
+	void setCanvas(Canvas canvas) {
+		mCanvas = canvas;
+	}
+
+	public int save() {
+		return mCanvas.save();
+	}
+
+	public void restore() {
+		mCanvas.restore();
+	}
+
+	public void concat(Matrix matrix) {
+		mCanvas.concat(matrix);
+	}
+
+	public void scale(float sx, float sy) {
+		mCanvas.scale(sx, sy);
+	}
+
+	public void rotate(float degrees) {
+		mCanvas.rotate(degrees);
+	}
+
+	public void translate(float dx, float dy) {
+		mCanvas.translate(dx, dy);
+	}
+
+	public void getMatrix(Matrix matrix) {
+		mCanvas.getMatrix(matrix);
+	}
+
+	public void drawPath(Path path, Paint paint) {
+		mCanvas.drawPath(path, paint);
+	}
+
+	public void drawArc(RectF oval, float startAngle, float sweepAngle,
+			boolean useCenter, Paint paint) {
+		mCanvas.drawArc(oval, startAngle, sweepAngle, useCenter, paint);
+	}
+
+	public void drawText(CharSequence text, int start, int end, float x,
+			float y, Paint paint) {
+		mCanvas.drawText(text, start, end, x, y, paint);
+	}
+
+	public void drawPosText(char[] text, int index, int count, float[] pos,
+			Paint paint) {
+		mCanvas.drawPosText(text, index, count, pos, paint);
+	}
+}
@@ -0,0 +1,388 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.trevorpage.tpsvg;
+
+import java.util.ArrayList;
+
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.Interpolator;
+
+import com.trevorpage.tpsvg.SVGParserRenderer.Textstring;
+
+/**
+ * Tweens the transform, opacity and colours of a document's animated
+ * elements over time, by writing them to an SVGElementState. It saves writing
+ * an ITpsvgController, and running a timer, for the common effects:
+ * 
+ * <pre>
+ * SVGAnimator animator = new SVGAnimator(image.createElementState());
+ * view.bindController(animator);
+ * view.setAnimator(animator);
+ * ...
+ * animator.animateRotate(needle, 0, 120, pivotX, pivotY, 500);
+ * </pre>
+ * 
+ * An SVGView that has been given the animator advances it on each display
+ * frame, from the Choreographer where there is one, and draws the result. It
+ * does so only while there are tweens running and the view is attached to a
+ * visible window, so an idle or hidden view uses no CPU. The animator is also a controller, which can be bound to the view if
+ * no other is needed; otherwise the view's controller should implement
+ * ITpsvgStateController and return the animator's state. Only the elements
+ * with tweens running are visited on each frame.
+ * <p>
+ * Tweens should be started, and the animator advanced, on the UI thread.
+ */
+public class SVGAnimator implements ITpsvgStateController,
+		ITpsvgVersionedController {
+
+	public static final int REPEAT_INFINITE = -1;
+
+	private static final int PROPERTY_TRANSFORM = 0;
+	private static final int PROPERTY_ALPHA = 1;
+	private static final int PROPERTY_FILL_COLOR = 2;
+	private static final int PROPERTY_STROKE_COLOR = 3;
+
+	private static final int TYPE_ROTATE = 0;
+	private static final int TYPE_TRANSLATE = 1;
+	private static final int TYPE_SCALE = 2;
+	private static final int TYPE_ALPHA = 3;
+	private static final int TYPE_FILL_COLOR = 4;
+	private static final int TYPE_STROKE_COLOR = 5;
+
+	private static final Interpolator DEFAULT_INTERPOLATOR = new AccelerateDecelerateInterpolator();
+
+	private final SVGElementState mState;
+	private final ArrayList<Tween> mTweens = new ArrayList<Tween>();
+	private SVGView mView;
+
+	/**
+	 * One property of one element changing from a start value to an end value
+	 * over a period of time. The setters return the Tween, so that it can be
+	 * configured where it's started.
+	 */
+	public static class Tween {
+		final int handle;
+		final int type;
+		final float[] from;
+		final float[] to;
+		final long duration;
+		long startTime;
+		private long startDelay;
+		private Interpolator interpolator = DEFAULT_INTERPOLATOR;
+		private int repeatCount;
+		private boolean reverse;
+		boolean finished;
+
+		Tween(int handle, int type, float[] from, float[] to, long duration,
+				long startTime) {
+			this.handle = handle;
+			this.type = type;
+			this.from = from;
+			this.to = to;
+			this.duration = Math.max(1, duration);
+			this.startTime = startTime;
+		}
+
+		public Tween setInterpolator(Interpolator interpolator) {
+			this.interpolator = interpolator;
+			return this;
+		}
+
+		public Tween setStartDelay(long delayMillis) {
+			startDelay = delayMillis;
+			return this;
+		}
+
+		/**
+		 * @param repeatCount
+		 *            The number of times to repeat after the first run, or
+		 *            REPEAT_INFINITE.
+		 */
+		public Tween setRepeatCount(int repeatCount) {
+			this.repeatCount = repeatCount;
+			return this;
+		}
+
+		/**
+		 * Run every other repeat backwards, from the end value to the start
+		 * value.
+		 */
+		public Tween setReverse(boolean reverse) {
+			this.reverse = reverse;
+			return this;
+		}
+
+		public void cancel() {
+			finished = true;
+		}
+
+		/**
+		 * @return The fraction of the tween to apply at the given time, after
+		 *         interpolation.
+		 */
+		float getFraction(long now) {
+			long elapsed = now - startTime - startDelay;
+			if (elapsed < 0) {
+				return interpolator.getInterpolation(0);
+			}
+			long run = elapsed / duration;
+			float fraction;
+			if (repeatCount != REPEAT_INFINITE && run > repeatCount) {
+				finished = true;
+				run = repeatCount;
+				fraction = 1;
+			} else {
+				fraction = (float) (elapsed % duration) / duration;
+			}
+			if (reverse && run % 2 == 1) {
+				fraction = 1 - fraction;
+			}
+			return interpolator.getInterpolation(fraction);
+		}
+
+		int getProperty() {
+			switch (type) {
+			case TYPE_ALPHA:
+				return PROPERTY_ALPHA;
+			case TYPE_FILL_COLOR:
+				return PROPERTY_FILL_COLOR;
+			case TYPE_STROKE_COLOR:
+				return PROPERTY_STROKE_COLOR;
+			default:
+				return PROPERTY_TRANSFORM;
+			}
+		}
+	}
+
+	public SVGAnimator(SVGElementState state) {
+		mState = state;
+	}
+
+	public SVGElementState getElementState() {
+		return mState;
+	}
+
+	/**
+	 * The animator draws elements only through its state, so the state's
+	 * version covers everything it changes.
+	 */
+	public long getStateVersion() {
+		return mState.getVersion();
+	}
+
+	/**
+	 * Called by SVGView.setAnimator(), so that starting a tween can request a
+	 * frame.
+	 */
+	void setView(SVGView view) {
+		mView = view;
+	}
+
+	/**
+	 * Rotate the element from one angle to another, in degrees, about the
+	 * point (px, py) in document coordinates.
+	 */
+	public Tween animateRotate(int handle, float fromDegrees,
+			float toDegrees, float px, float py, long durationMillis) {
+		return start(new Tween(handle, TYPE_ROTATE, new float[] {
+				fromDegrees, px, py }, new float[] { toDegrees, px, py },
+				durationMillis, SystemClock.uptimeMillis()));
+	}
+
+	public Tween animateTranslate(int handle, float fromX, float fromY,
+			float toX, float toY, long durationMillis) {
+		return start(new Tween(handle, TYPE_TRANSLATE, new float[] { fromX,
+				fromY }, new float[] { toX, toY }, durationMillis,
+				SystemClock.uptimeMillis()));
+	}
+
+	/**
+	 * Scale the element about the point (px, py) in document coordinates.
+	 */
+	public Tween animateScale(int handle, float fromScale, float toScale,
+			float px, float py, long durationMillis) {
+		return start(new Tween(handle, TYPE_SCALE, new float[] { fromScale,
+				px, py }, new float[] { toScale, px, py }, durationMillis,
+				SystemClock.uptimeMillis()));
+	}
+
+	/**
+	 * Change the element's opacity, from 0 to 1.
+	 */
+	public Tween animateAlpha(int handle, float fromAlpha, float toAlpha,
+			long durationMillis) {
+		return start(new Tween(handle, TYPE_ALPHA, new float[] { fromAlpha },
+				new float[] { toAlpha }, durationMillis,
+				SystemClock.uptimeMillis()));
+	}
+
+	public Tween animateFillColor(int handle, int fromColor, int toColor,
+			long durationMillis) {
+		return start(new Tween(handle, TYPE_FILL_COLOR, argb(fromColor),
+				argb(toColor), durationMillis, SystemClock.uptimeMillis()));
+	}
+
+	public Tween animateStrokeColor(int handle, int fromColor, int toColor,
+			long durationMillis) {
+		return start(new Tween(handle, TYPE_STROKE_COLOR, argb(fromColor),
+				argb(toColor), durationMillis, SystemClock.uptimeMillis()));
+	}
+
+	/**
+	 * Cancel all tweens of the element, which is left as the last frame drew
+	 * it.
+	 */
+	public void cancel(int handle) {
+		for (int i = mTweens.size() - 1; i >= 0; i--) {
+			if (mTweens.get(i).handle == handle) {
+				mTweens.remove(i);
+			}
+		}
+	}
+
+	public void cancelAll() {
+		mTweens.clear();
+	}
+
+	/**
+	 * @return true if any tween is still running, so more frames are needed.
+	 */
+	public boolean isRunning() {
+		return !mTweens.isEmpty();
+	}
+
+	/**
+	 * Apply every running tween at the given time, as given by
+	 * SystemClock.uptimeMillis(), and drop those that have finished.
+	 * 
+	 * @return true if any tween is still running.
+	 */
+	public boolean update(long now) {
+		for (int i = mTweens.size() - 1; i >= 0; i--) {
+			Tween tween = mTweens.get(i);
+			if (!tween.finished) {
+				apply(tween, tween.getFraction(now));
+			}
+			if (tween.finished) {
+				mTweens.remove(i);
+			}
+		}
+		return !mTweens.isEmpty();
+	}
+
+	private Tween start(Tween tween) {
+		// A new tween replaces one already running for the same property.
+		int property = tween.getProperty();
+		for (int i = mTweens.size() - 1; i >= 0; i--) {
+			Tween running = mTweens.get(i);
+			if (running.handle == tween.handle
+					&& running.getProperty() == property) {
+				mTweens.remove(i);
+			}
+		}
+		mTweens.add(tween);
+		if (mView != null) {
+			mView.onAnimationStarted();
+		}
+		return tween;
+	}
+
+	private void apply(Tween tween, float fraction) {
+		float[] from = tween.from;
+		float[] to = tween.to;
+		switch (tween.type) {
+		case TYPE_ROTATE:
+			mState.setRotate(tween.handle, lerp(from[0], to[0], fraction),
+					from[1], from[2]);
+			break;
+		case TYPE_TRANSLATE:
+			mState.setTranslate(tween.handle, lerp(from[0], to[0], fraction),
+					lerp(from[1], to[1], fraction));
+			break;
+		case TYPE_SCALE:
+			float scale = lerp(from[0], to[0], fraction);
+			mState.setTransform(tween.handle, scale, 0, from[1] - scale
+					* from[1], 0, scale, from[2] - scale * from[2]);
+			break;
+		case TYPE_ALPHA:
+			mState.setAlpha(tween.handle, lerp(from[0], to[0], fraction));
+			break;
+		case TYPE_FILL_COLOR:
+			mState.setFillColor(tween.handle, lerpColor(from, to, fraction));
+			break;
+		case TYPE_STROKE_COLOR:
+			mState.setStrokeColor(tween.handle, lerpColor(from, to, fraction));
+			break;
+		}
+	}
+
+	private static float lerp(float from, float to, float fraction) {
+		return from + (to - from) * fraction;
+	}
+
+	private static float[] argb(int color) {
+		return new float[] { Color.alpha(color), Color.red(color),
+				Color.green(color), Color.blue(color) };
+	}
+
+	private static int lerpColor(float[] from, float[] to, float fraction) {
+		return Color.argb(Math.round(lerp(from[0], to[0], fraction)),
+				Math.round(lerp(from[1], to[1], fraction)),
+				Math.round(lerp(from[2], to[2], fraction)),
+				Math.round(lerp(from[3], to[3], fraction)));
+	}
+
+	// ------------------------------------------------------------------------------
+	// ITpsvgController, for the elements that aren't being animated
+
+	public boolean animElement(String id, int iteration, Path path,
+			Matrix matrix, Paint sroke, Paint fill) {
+		return false;
+	}
+
+	public void setRemainderWidthOrHeight(float remainderWidth,
+			float remainderHeight) {
+	}
+
+	public boolean animTextElement(String id, int iteration, Matrix matrix,
+			Paint strokePaint, Paint fillPaint, Textstring text, float x,
+			float y) {
+		return false;
+	}
+
+	public boolean arcParams(String id, Path path, float startAngle,
+			float sweepAngle, RectF bounds) {
+		path.addArc(bounds, startAngle, sweepAngle);
+		return false;
+	}
+
+	public void setSourceDocumentWidth(int width) {
+	}
+
+	public void setSourceDocumentHeight(int height) {
+	}
+
+	public void onSVGPrivateData(String key, String value) {
+	}
+}
@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+/**
+ * Renders many documents, or subtrees of them, to PNG files in parallel, for
+ * pre-rendering assets at several sizes. Documents are added by name and
+ * parsed once, when a job first needs them, and are then shared by all the
+ * jobs that render them. Jobs are run on a pool of threads taking work from a
+ * shared queue, one thread per processor by default, and the caller is told
+ * of each job's completion and timings through an IBatchListener.
+ * 
+ * Jobs for different documents run fully in parallel. Jobs for the same
+ * document share its SVGParserRenderer, whose paintImage() is synchronized
+ * and so renders one job at a time: those jobs are serialized, and a batch
+ * parallelises best when it spans several documents. To render many jobs of
+ * a single document in parallel, add copies of it under different names and
+ * share the jobs between them.
+ * 
+ * Each document is released once the last of its jobs in the batch has
+ * completed, so that a large batch doesn't hold every document it has
+ * rendered until it ends.
+ */
+public class SVGBatchRasterizer {
+
+	/**
+	 * One image to render.
+	 */
+	public static class Job {
+		public final String document;
+		public final String subtreeId;
+		public final int width;
+		public final int height;
+		public final int rotation;
+		public final boolean fill;
+		public final File output;
+
+		/**
+		 * @param document
+		 *            Name the document was added with.
+		 * @param subtreeId
+		 *            ID of the subtree to render, or null for the whole
+		 *            document.
+		 * @param width
+		 *            Width of the image, in pixels.
+		 * @param height
+		 *            Height of the image, in pixels.
+		 * @param rotation
+		 *            Rotation, as for SVGParserRenderer.paintImage().
+		 * @param fill
+		 *            Scale to fill the image rather than fit within it.
+		 * @param output
+		 *            The PNG file to write.
+		 */
+		public Job(String document, String subtreeId, int width, int height,
+				int rotation, boolean fill, File output) {
+			this.document = document;
+			this.subtreeId = subtreeId;
+			this.width = width;
+			this.height = height;
+			this.rotation = rotation;
+			this.fill = fill;
+			this.output = output;
+		}
+	}
+
+	/**
+	 * The outcome and timings of a job. Times are in nanoseconds.
+	 */
+	public static class JobResult {
+		public final Job job;
+		/**
+		 * Time spent parsing the document, if this job was the one to parse
+		 * it, otherwise 0.
+		 */
+		public long parseNanos;
+		public long renderNanos;
+		public long encodeNanos;
+		/** The reason the job failed, or null if it succeeded. */
+		public Throwable error;
+
+		JobResult(Job job) {
+			this.job = job;
+		}
+
+		public boolean isSuccessful() {
+			return error == null;
+		}
+
+		public long getTotalNanos() {
+			return parseNanos + renderNanos + encodeNanos;
+		}
+	}
+
+	/**
+	 * Told of the progress of a batch. Called on the thread that called run().
+	 */
+	public interface IBatchListener {
+		void onJobComplete(JobResult result, int completedCount, int jobCount);
+	}
+
+	private final Context mContext;
+	private final HashMap<String, byte[]> mDocuments = new HashMap<String, byte[]>();
+	private final ConcurrentHashMap<String, FutureTask<SVGParserRenderer>> mParsed = new ConcurrentHashMap<String, FutureTask<SVGParserRenderer>>();
+	// The number of jobs in the running batch yet to complete, per document.
+	private final ConcurrentHashMap<String, AtomicInteger> mRemainingJobs = new ConcurrentHashMap<String, AtomicInteger>();
+	private final ArrayList<Job> mJobs = new ArrayList<Job>();
+	private int mThreadCount = Runtime.getRuntime().availableProcessors();
+	private IBatchListener mListener;
+
+	/**
+	 * @param context
+	 *            Context used for loading any fonts the documents use.
+	 */
+	public SVGBatchRasterizer(Context context) {
+		mContext = context;
+	}
+
+	public void addDocument(String name, byte[] document) {
+		mDocuments.put(name, document);
+	}
+
+	public void addJob(Job job) {
+		mJobs.add(job);
+	}
+
+	/**
+	 * Add a job for each of several sizes of the same image, e.g. for
+	 * different screen densities.
+	 * 
+	 * @param outputs
+	 *            The file to write for each size.
+	 */
+	public void addJobs(String document, String subtreeId, int[] widths,
+			int[] heights, File[] outputs) {
+		for (int i = 0; i < outputs.length; i++) {
+			mJobs.add(new Job(document, subtreeId, widths[i], heights[i], 0,
+					false, outputs[i]));
+		}
+	}
+
+	public void setThreadCount(int threadCount) {
+		mThreadCount = threadCount;
+	}
+
+	public void setListener(IBatchListener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Run all the jobs added, and wait for them to finish. A job that fails
+	 * doesn't stop the others.
+	 * 
+	 * @return The result of each job, in the order the jobs were added.
+	 */
+	public List<JobResult> run() throws InterruptedException {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(mThreadCount,
+				mThreadCount, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		ExecutorCompletionService<JobResult> completion = new ExecutorCompletionService<JobResult>(
+				executor);
+		ArrayList<JobResult> results = new ArrayList<JobResult>(mJobs.size());
+		mRemainingJobs.clear();
+		for (Job job : mJobs) {
+			AtomicInteger remaining = mRemainingJobs.get(job.document);
+			if (remaining == null) {
+				remaining = new AtomicInteger();
+				mRemainingJobs.put(job.document, remaining);
+			}
+			remaining.incrementAndGet();
+		}
+		try {
+			for (Job job : mJobs) {
+				final JobResult result = new JobResult(job);
+				results.add(result);
+				completion.submit(new Callable<JobResult>() {
+					public JobResult call() {
+						runJob(result);
+						return result;
+					}
+				});
+			}
+			for (int completed = 1; completed <= mJobs.size(); completed++) {
+				Future<JobResult> future = completion.take();
+				if (mListener != null) {
+					try {
+						mListener.onJobComplete(future.get(), completed,
+								mJobs.size());
+					} catch (ExecutionException e) {
+						// runJob() doesn't throw.
+					}
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			mParsed.clear();
+		}
+		return results;
+	}
+
+	private void runJob(JobResult result) {
+		Job job = result.job;
+		try {
+			SVGParserRenderer image = getDocument(job.document, result);
+			long start = System.nanoTime();
+			Bitmap bitmap = SVGRasterizer.rasterize(image, job.subtreeId,
+					job.width, job.height, null, job.fill, job.rotation);
+			result.renderNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			try {
+				OutputStream out = new FileOutputStream(job.output);
+				try {
+					if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+						throw new IOException("PNG encoding failed");
+					}
+				} finally {
+					out.close();
+				}
+			} finally {
+				bitmap.recycle();
+			}
+			result.encodeNanos = System.nanoTime() - start;
+		} catch (Throwable e) {
+			result.error = e;
+		} finally {
+			if (mRemainingJobs.get(job.document).decrementAndGet() == 0) {
+				mParsed.remove(job.document);
+			}
+		}
+	}
+
+	/**
+	 * Obtain a parsed document, parsing it if no other job has yet. Jobs that
+	 * need a document being parsed by another job wait for it.
+	 */
+	private SVGParserRenderer getDocument(final String name, JobResult result)
+			throws Exception {
+		FutureTask<SVGParserRenderer> task = mParsed.get(name);
+		if (task == null) {
+			final byte[] document = mDocuments.get(name);
+			if (document == null) {
+				throw new IllegalArgumentException("No document named " + name);
+			}
+			FutureTask<SVGParserRenderer> newTask = new FutureTask<SVGParserRenderer>(
+					new Callable<SVGParserRenderer>() {
+						public SVGParserRenderer call() {
+							return new SVGParserRenderer(mContext,
+									new ByteArrayInputStream(document));
+						}
+					});
+			task = mParsed.putIfAbsent(name, newTask);
+			if (task == null) {
+				task = newTask;
+				long start = System.nanoTime();
+				task.run();
+				result.parseNanos = System.nanoTime() - start;
+			}
+		}
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof Exception ? (Exception) cause : e;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Problems found while parsing a document: content that isn't supported and
+ * was ignored or approximated, values that couldn't be parsed, and errors
+ * that stopped the parse before the end of the document. Each is recorded
+ * with the path of the element it was found in and, where the XML parser
+ * provides it, the line number. The diagnostics of a document are obtained
+ * with SVGParserRenderer.getDiagnostics(). When a document is parsed
+ * strictly (see SVGParserRenderer.parseImageFile(Context, InputStream,
+ * boolean)) the first problem aborts the parse with an SVGParseException
+ * instead.
+ */
+public class SVGDiagnostics {
+
+	/** The document isn't well-formed XML, or couldn't be read. */
+	public static final int KIND_PARSE_ERROR = 0;
+	/** An element that isn't supported, and was ignored. */
+	public static final int KIND_UNSUPPORTED_ELEMENT = 1;
+	/** A length with units that aren't supported, which were ignored. */
+	public static final int KIND_UNSUPPORTED_UNIT = 2;
+	/** A number that couldn't be parsed. */
+	public static final int KIND_INVALID_NUMBER = 3;
+	/** A colour in a format that isn't supported, such as a keyword. */
+	public static final int KIND_UNSUPPORTED_COLOUR = 4;
+	/** A colour that couldn't be parsed. */
+	public static final int KIND_INVALID_COLOUR = 5;
+	/** A url() or xlink:href reference to an element that doesn't exist. */
+	public static final int KIND_UNRESOLVED_REFERENCE = 6;
+	/** An element that is missing something it needs to be drawn. */
+	public static final int KIND_INVALID_ELEMENT = 7;
+
+	private static final String[] KIND_NAMES = { "parse_error",
+			"unsupported_element", "unsupported_unit", "invalid_number",
+			"unsupported_colour", "invalid_colour", "unresolved_reference",
+			"invalid_element" };
+
+	/** Limit to the number of warnings kept; all of them are counted. */
+	private static final int MAX_WARNINGS = 100;
+
+	/**
+	 * A single problem.
+	 */
+	public static class Warning {
+		public final int kind;
+		public final String message;
+		/**
+		 * Path of the element the problem was found in, e.g.
+		 * "svg/g#layer1/path#needle".
+		 */
+		public final String elementPath;
+		/** Line number in the document, or -1 if not known. */
+		public final int lineNumber;
+
+		Warning(int kind, String message, String elementPath, int lineNumber) {
+			this.kind = kind;
+			this.message = message;
+			this.elementPath = elementPath;
+			this.lineNumber = lineNumber;
+		}
+
+		/**
+		 * @return True if the problem stopped the parse.
+		 */
+		public boolean isError() {
+			return kind == KIND_PARSE_ERROR;
+		}
+
+		@Override
+		public String toString() {
+			return KIND_NAMES[kind] + " at line " + lineNumber + " ("
+					+ elementPath + "): " + message;
+		}
+	}
+
+	private final ArrayList<Warning> mWarnings = new ArrayList<Warning>();
+	private int mWarningCount;
+	private int mErrorCount;
+
+	public static String getKindName(int kind) {
+		return KIND_NAMES[kind];
+	}
+
+	/**
+	 * @return The problems found, in the order they were found. At most the
+	 *         first hundred are kept.
+	 */
+	public List<Warning> getWarnings() {
+		return Collections.unmodifiableList(mWarnings);
+	}
+
+	/**
+	 * @return The number of problems found, including errors.
+	 */
+	public int getWarningCount() {
+		return mWarningCount;
+	}
+
+	public int getErrorCount() {
+		return mErrorCount;
+	}
+
+	/**
+	 * @return True if the parse was stopped by an error, in which case the
+	 *         document is incomplete.
+	 */
+	public boolean hasErrors() {
+		return mErrorCount > 0;
+	}
+
+	Warning add(int kind, String message, String elementPath, int lineNumber) {
+		Warning warning = new Warning(kind, message, elementPath, lineNumber);
+		mWarningCount++;
+		if (warning.isError()) {
+			mErrorCount++;
+		}
+		if (mWarnings.size() < MAX_WARNINGS) {
+			mWarnings.add(warning);
+		}
+		return warning;
+	}
+}
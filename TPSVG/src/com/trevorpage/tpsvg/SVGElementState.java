@@ -0,0 +1,428 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.trevorpage.tpsvg;
+
+import android.graphics.Matrix;
+
+/**
+ * Per-element state for the animated elements of a document, held in
+ * primitive arrays that paintImage() reads directly. It's an alternative to
+ * doing the work in ITpsvgController.animElement() and animTextElement():
+ * rather than being called back for every animated element on every frame,
+ * and comparing ids to decide what to do, a controller resolves each id to an
+ * integer handle once and then sets that element's transform, colours,
+ * opacity and visibility whenever they change:
+ * 
+ * <pre>
+ * SVGElementState state = image.createElementState();
+ * int needle = image.getElementHandle(&quot;_anim_needle&quot;);
+ * ...
+ * state.setRotate(needle, angle, pivotX, pivotY);
+ * view.invalidateBitmap();
+ * </pre>
+ * 
+ * The state is made available to the evaluator by a controller that
+ * implements ITpsvgStateController. An element whose state has been set is
+ * said to be driven, and isn't passed to the controller's callbacks until it
+ * is released. Elements are identified by the ids with the special animation
+ * prefix, and a handle is the position of the element's id in the document.
+ * An instance belongs to the document that created it, but any number of
+ * instances may be created for one document, such as one for each view
+ * showing it.
+ * <p>
+ * A path can also be replicated, which is what returning true from
+ * animElement() is mostly used for, such as for drawing the tick marks of a
+ * gauge from a single tick in the document. setInstances() gives the
+ * transform, and optionally the colour, of every copy in one call, and the
+ * evaluator draws the path once for each under Canvas.concat() rather than
+ * transforming its geometry each time.
+ * <p>
+ * An element that is a single arc, such as a progress ring, can have its
+ * angles set with setArc(). Where the element's transform only scales and
+ * translates, the evaluator draws it directly as an arc, rather than
+ * building a path for it.
+ */
+public class SVGElementState {
+
+	static final int FLAG_DRIVEN = 1 << 0;
+	static final int FLAG_HIDDEN = 1 << 1;
+	static final int FLAG_TRANSFORM = 1 << 2;
+	static final int FLAG_FILL_COLOR = 1 << 3;
+	static final int FLAG_STROKE_COLOR = 1 << 4;
+	static final int FLAG_INSTANCES = 1 << 5;
+	static final int FLAG_ALPHA = 1 << 6;
+	static final int FLAG_ARC = 1 << 7;
+	static final int FLAG_ARC_START = 1 << 8;
+
+	// The six affine values of each element's transform, in the order of
+	// Matrix.getValues().
+	private static final int TRANSFORM_STRIDE = 6;
+
+	private final SVGParserRenderer mImage;
+	final int[] mFlags;
+	final float[] mTransforms;
+	final int[] mFillColors;
+	final int[] mStrokeColors;
+	final float[] mAlphas;
+	final float[] mArcStarts;
+	final float[] mArcSweeps;
+	final int[] mInstanceCounts;
+	private final float[][] mInstanceTransforms;
+	private final int[][] mInstanceColors;
+	private final float[] mMatrixValues = new float[9];
+	private long mVersion;
+
+	SVGElementState(SVGParserRenderer image, int handleCount) {
+		mImage = image;
+		mFlags = new int[handleCount];
+		mTransforms = new float[handleCount * TRANSFORM_STRIDE];
+		mFillColors = new int[handleCount];
+		mStrokeColors = new int[handleCount];
+		mAlphas = new float[handleCount];
+		mArcStarts = new float[handleCount];
+		mArcSweeps = new float[handleCount];
+		mInstanceCounts = new int[handleCount];
+		mInstanceTransforms = new float[handleCount][];
+		mInstanceColors = new int[handleCount][];
+	}
+
+	/**
+	 * @return The document this state belongs to.
+	 */
+	public SVGParserRenderer getImage() {
+		return mImage;
+	}
+
+	public int getHandleCount() {
+		return mFlags.length;
+	}
+
+	/**
+	 * @return A number that changes whenever anything in the state is set, so
+	 *         that a frame can be skipped if it hasn't changed since the last
+	 *         was drawn.
+	 */
+	public long getVersion() {
+		return mVersion;
+	}
+
+	/**
+	 * Set the element's transform, which is applied after its own transform
+	 * in the document, as the Matrix passed to animElement() would be.
+	 */
+	public void setTransform(int handle, Matrix matrix) {
+		matrix.getValues(mMatrixValues);
+		setTransform(handle, mMatrixValues[Matrix.MSCALE_X],
+				mMatrixValues[Matrix.MSKEW_X], mMatrixValues[Matrix.MTRANS_X],
+				mMatrixValues[Matrix.MSKEW_Y], mMatrixValues[Matrix.MSCALE_Y],
+				mMatrixValues[Matrix.MTRANS_Y]);
+	}
+
+	/**
+	 * Set the element's transform from the six values of an affine Matrix.
+	 */
+	public void setTransform(int handle, float scaleX, float skewX,
+			float transX, float skewY, float scaleY, float transY) {
+		int i = handle * TRANSFORM_STRIDE;
+		mTransforms[i] = scaleX;
+		mTransforms[i + 1] = skewX;
+		mTransforms[i + 2] = transX;
+		mTransforms[i + 3] = skewY;
+		mTransforms[i + 4] = scaleY;
+		mTransforms[i + 5] = transY;
+		mFlags[handle] |= FLAG_DRIVEN | FLAG_TRANSFORM;
+		mVersion++;
+	}
+
+	/**
+	 * Set the element's transform to a translation.
+	 */
+	public void setTranslate(int handle, float dx, float dy) {
+		setTransform(handle, 1, 0, dx, 0, 1, dy);
+	}
+
+	/**
+	 * Set the element's transform to a rotation by the given degrees about
+	 * the point (px, py), in document coordinates.
+	 */
+	public void setRotate(int handle, float degrees, float px, float py) {
+		double radians = Math.toRadians(degrees);
+		float cos = (float) Math.cos(radians);
+		float sin = (float) Math.sin(radians);
+		setTransform(handle, cos, -sin, px - cos * px + sin * py, sin, cos, py
+				- sin * px - cos * py);
+	}
+
+	/**
+	 * Remove the element's transform, leaving it where the document places
+	 * it.
+	 */
+	public void clearTransform(int handle) {
+		mFlags[handle] = (mFlags[handle] & ~FLAG_TRANSFORM) | FLAG_DRIVEN;
+		mVersion++;
+	}
+
+	public void setVisible(int handle, boolean visible) {
+		if (visible) {
+			mFlags[handle] = (mFlags[handle] & ~FLAG_HIDDEN) | FLAG_DRIVEN;
+		} else {
+			mFlags[handle] |= FLAG_DRIVEN | FLAG_HIDDEN;
+		}
+		mVersion++;
+	}
+
+	/**
+	 * Set the colour the element is filled with, in place of its style's. The
+	 * alpha of the colour applies to a gradient or pattern fill too.
+	 */
+	public void setFillColor(int handle, int color) {
+		mFillColors[handle] = color;
+		mFlags[handle] |= FLAG_DRIVEN | FLAG_FILL_COLOR;
+		mVersion++;
+	}
+
+	/**
+	 * Set the colour the element is stroked with, in place of its style's.
+	 */
+	public void setStrokeColor(int handle, int color) {
+		mStrokeColors[handle] = color;
+		mFlags[handle] |= FLAG_DRIVEN | FLAG_STROKE_COLOR;
+		mVersion++;
+	}
+
+	/**
+	 * Go back to the colours of the element's style.
+	 */
+	public void clearColors(int handle) {
+		mFlags[handle] = (mFlags[handle] & ~(FLAG_FILL_COLOR | FLAG_STROKE_COLOR))
+				| FLAG_DRIVEN;
+		mVersion++;
+	}
+
+	/**
+	 * Set the element's opacity, from 0 to 1, which multiplies the alpha of
+	 * its fill and stroke.
+	 */
+	public void setAlpha(int handle, float alpha) {
+		mAlphas[handle] = alpha;
+		mFlags[handle] |= FLAG_DRIVEN | FLAG_ALPHA;
+		mVersion++;
+	}
+
+	/**
+	 * Draw the element with the opacity of its style.
+	 */
+	public void clearAlpha(int handle) {
+		mFlags[handle] = (mFlags[handle] & ~FLAG_ALPHA) | FLAG_DRIVEN;
+		mVersion++;
+	}
+
+	/**
+	 * Set the sweep of an element that is a single arc, in degrees, keeping
+	 * the start angle it has in the document. Setting this has no effect on
+	 * any other kind of element.
+	 */
+	public void setArcSweep(int handle, float sweepAngle) {
+		mArcSweeps[handle] = sweepAngle;
+		mFlags[handle] = (mFlags[handle] & ~FLAG_ARC_START) | FLAG_DRIVEN
+				| FLAG_ARC;
+		mVersion++;
+	}
+
+	/**
+	 * Set both the start angle and the sweep of an element that is a single
+	 * arc, in degrees.
+	 */
+	public void setArc(int handle, float startAngle, float sweepAngle) {
+		mArcStarts[handle] = startAngle;
+		mArcSweeps[handle] = sweepAngle;
+		mFlags[handle] |= FLAG_DRIVEN | FLAG_ARC | FLAG_ARC_START;
+		mVersion++;
+	}
+
+	/**
+	 * Go back to the arc's angles in the document.
+	 */
+	public void clearArc(int handle) {
+		mFlags[handle] = (mFlags[handle] & ~(FLAG_ARC | FLAG_ARC_START))
+				| FLAG_DRIVEN;
+		mVersion++;
+	}
+
+	/**
+	 * Draw the element, which must be a path, count times, each with its own
+	 * transform and optionally its own colour. Each transform is applied
+	 * after the element's own transform, if it has one. As the copies are
+	 * drawn with the transform applied to the Canvas, a transform that scales
+	 * also scales the stroke width.
+	 * 
+	 * @param transforms
+	 *            The six affine values of each copy's transform, in the order
+	 *            of Matrix.getValues().
+	 * @param colors
+	 *            The colour of each copy, which replaces the colour of both
+	 *            its fill and its stroke, or null to use the element's
+	 *            colours.
+	 * @param count
+	 *            The number of copies to draw, which may be zero.
+	 */
+	public void setInstances(int handle, float[] transforms, int[] colors,
+			int count) {
+		float[] instanceTransforms = mInstanceTransforms[handle];
+		if (instanceTransforms == null
+				|| instanceTransforms.length < count * TRANSFORM_STRIDE) {
+			instanceTransforms = new float[count * TRANSFORM_STRIDE];
+			mInstanceTransforms[handle] = instanceTransforms;
+		}
+		System.arraycopy(transforms, 0, instanceTransforms, 0, count
+				* TRANSFORM_STRIDE);
+		if (colors != null) {
+			int[] instanceColors = mInstanceColors[handle];
+			if (instanceColors == null || instanceColors.length < count) {
+				instanceColors = new int[count];
+			}
+			System.arraycopy(colors, 0, instanceColors, 0, count);
+			mInstanceColors[handle] = instanceColors;
+		} else {
+			mInstanceColors[handle] = null;
+		}
+		mInstanceCounts[handle] = count;
+		mFlags[handle] |= FLAG_DRIVEN | FLAG_INSTANCES;
+		mVersion++;
+	}
+
+	/**
+	 * Draw the element once again, rather than once for each transform given
+	 * to setInstances().
+	 */
+	public void clearInstances(int handle) {
+		mFlags[handle] = (mFlags[handle] & ~FLAG_INSTANCES) | FLAG_DRIVEN;
+		mInstanceCounts[handle] = 0;
+		mVersion++;
+	}
+
+	/**
+	 * Forget everything set for the element, so that it is once again passed
+	 * to the controller's callbacks.
+	 */
+	public void release(int handle) {
+		mFlags[handle] = 0;
+		mInstanceCounts[handle] = 0;
+		mInstanceTransforms[handle] = null;
+		mInstanceColors[handle] = null;
+		mVersion++;
+	}
+
+	/**
+	 * Make this state the same as another of the same document's, reusing
+	 * this one's arrays where they're large enough.
+	 */
+	void copyFrom(SVGElementState other) {
+		int count = mFlags.length;
+		mVersion = other.mVersion;
+		System.arraycopy(other.mFlags, 0, mFlags, 0, count);
+		System.arraycopy(other.mTransforms, 0, mTransforms, 0,
+				mTransforms.length);
+		System.arraycopy(other.mFillColors, 0, mFillColors, 0, count);
+		System.arraycopy(other.mStrokeColors, 0, mStrokeColors, 0, count);
+		System.arraycopy(other.mAlphas, 0, mAlphas, 0, count);
+		System.arraycopy(other.mArcStarts, 0, mArcStarts, 0, count);
+		System.arraycopy(other.mArcSweeps, 0, mArcSweeps, 0, count);
+		System.arraycopy(other.mInstanceCounts, 0, mInstanceCounts, 0, count);
+		for (int i = 0; i < count; i++) {
+			int instances = other.mInstanceCounts[i];
+			if (other.mInstanceTransforms[i] == null) {
+				mInstanceTransforms[i] = null;
+			} else {
+				mInstanceTransforms[i] = copyOf(other.mInstanceTransforms[i],
+						mInstanceTransforms[i], instances * TRANSFORM_STRIDE);
+			}
+			if (other.mInstanceColors[i] == null) {
+				mInstanceColors[i] = null;
+			} else {
+				mInstanceColors[i] = copyOf(other.mInstanceColors[i],
+						mInstanceColors[i], instances);
+			}
+		}
+	}
+
+	private static float[] copyOf(float[] source, float[] dest, int length) {
+		if (dest == null || dest.length < length) {
+			dest = new float[length];
+		}
+		System.arraycopy(source, 0, dest, 0, length);
+		return dest;
+	}
+
+	private static int[] copyOf(int[] source, int[] dest, int length) {
+		if (dest == null || dest.length < length) {
+			dest = new int[length];
+		}
+		System.arraycopy(source, 0, dest, 0, length);
+		return dest;
+	}
+
+	public boolean isDriven(int handle) {
+		return (mFlags[handle] & FLAG_DRIVEN) != 0;
+	}
+
+	/**
+	 * Write the element's transform to the given Matrix, which is left
+	 * unchanged if the element has none.
+	 * 
+	 * @param values
+	 *            Scratch space of at least 9 floats.
+	 * @return true if the element has a transform.
+	 */
+	boolean getTransform(int handle, Matrix matrix, float[] values) {
+		if ((mFlags[handle] & FLAG_TRANSFORM) == 0) {
+			return false;
+		}
+		setMatrix(mTransforms, handle * TRANSFORM_STRIDE, matrix, values);
+		return true;
+	}
+
+	/**
+	 * Write the transform of one of the element's copies to the given Matrix.
+	 * 
+	 * @param values
+	 *            Scratch space of at least 9 floats.
+	 */
+	void getInstanceTransform(int handle, int instance, Matrix matrix,
+			float[] values) {
+		setMatrix(mInstanceTransforms[handle], instance * TRANSFORM_STRIDE,
+				matrix, values);
+	}
+
+	boolean hasInstanceColors(int handle) {
+		return mInstanceColors[handle] != null;
+	}
+
+	int getInstanceColor(int handle, int instance) {
+		return mInstanceColors[handle][instance];
+	}
+
+	private static void setMatrix(float[] transforms, int offset,
+			Matrix matrix, float[] values) {
+		System.arraycopy(transforms, offset, values, 0, TRANSFORM_STRIDE);
+		values[Matrix.MPERSP_0] = 0;
+		values[Matrix.MPERSP_1] = 0;
+		values[Matrix.MPERSP_2] = 1;
+		matrix.setValues(values);
+	}
+}
@@ -19,7 +19,11 @@ package com.trevorpage.tpsvg;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import android.content.Context;
 
@@ -35,51 +39,162 @@ public class SVGFlyweightFactory {
 		
 	}
 
-	TreeMap<String, SVGParserRenderer> images = new TreeMap<String, SVGParserRenderer>();	
+	// Each image is parsed by a task, so that the lock is only held while the
+	// map is read and written. Others asking for the same image while it's
+	// being parsed wait for that task instead of parsing it again.
+	TreeMap<String, FutureTask<SVGParserRenderer>> images = new TreeMap<String, FutureTask<SVGParserRenderer>>();	
 	
 	/**
 	 * 
 	 */
-	public SVGParserRenderer get(int resourceID, Context context) {	
-		SVGParserRenderer image;
-		if (images.containsKey("resource" + resourceID)) {
-			image = images.get("resource" + resourceID);
-		}
-		else {
-			image = new SVGParserRenderer(context, resourceID); 
-			images.put("resource" + resourceID, image);
+	public SVGParserRenderer get(final int resourceID, final Context context) {	
+		try {
+			return get("resource" + resourceID, new Callable<SVGParserRenderer>() {
+				public SVGParserRenderer call() {
+					return new SVGParserRenderer(context, resourceID);
+				}
+			});
+		} catch (FileNotFoundException e) {
+			// Only thrown when parsing from a File.
+			throw new RuntimeException(e);
 		}
-		return image;
 	}	
 
 	/**
 	 * 
 	 */
-	public SVGParserRenderer get(File sourceFile, Context context) throws FileNotFoundException {
+	public SVGParserRenderer get(final File sourceFile, final Context context) throws FileNotFoundException {
+		return get(sourceFile.getName(), new Callable<SVGParserRenderer>() {
+			public SVGParserRenderer call() throws FileNotFoundException {
+				return new SVGParserRenderer(context, sourceFile);
+			}
+		});
+	}
+
+	/**
+	 * 
+	 */
+	public SVGParserRenderer get(final InputStream sourceStream, String name, final Context context) throws FileNotFoundException {
+		return get(name, new Callable<SVGParserRenderer>() {
+			public SVGParserRenderer call() {
+				return new SVGParserRenderer(context, sourceStream);
+			}
+		});
+	}
+
+	/**
+	 * Obtain the image held for a key, parsing it if there isn't one. The
+	 * parse is done outside the lock. An image whose parse was stopped by an
+	 * error isn't kept, because it's incomplete and parsing it again is given
+	 * a chance to succeed.
+	 */
+	private SVGParserRenderer get(String key, Callable<SVGParserRenderer> parse) throws FileNotFoundException {
+		FutureTask<SVGParserRenderer> task;
+		boolean parsing = false;
+		synchronized (this) {
+			task = images.get(key);
+			if (task == null) {
+				task = new FutureTask<SVGParserRenderer>(parse);
+				images.put(key, task);
+				parsing = true;
+			}
+		}
+		if (parsing) {
+			task.run();
+		}
 		SVGParserRenderer image;
-		if (images.containsKey(sourceFile.getName())) {
-			image = images.get(sourceFile.getName());
+		try {
+			image = await(task);
+		} catch (ExecutionException e) {
+			remove(key, task);
+			Throwable cause = e.getCause();
+			if (cause instanceof FileNotFoundException) {
+				throw (FileNotFoundException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+		if (parsing && image.getDiagnostics().hasErrors()) {
+			remove(key, task);
+		}
+		return image;
+	}
+
+	private synchronized void remove(String key, FutureTask<SVGParserRenderer> task) {
+		if (images.get(key) == task) {
+			images.remove(key);
 		}
-		else {
-			image = new SVGParserRenderer(context, sourceFile);
-			images.put(sourceFile.getName(), image);
+	}
+
+	/**
+	 * Wait for a task to finish without being interrupted, and restore the
+	 * thread's interrupted status afterwards if it was interrupted.
+	 */
+	private static SVGParserRenderer await(FutureTask<SVGParserRenderer> task) throws ExecutionException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
 		}
-		return image;		
 	}
 
 	/**
-	 * 
+	 * @return The images that have finished parsing.
 	 */
-	public SVGParserRenderer get(InputStream sourceStream, String name, Context context) throws FileNotFoundException {
-		SVGParserRenderer image;
-		if (images.containsKey(name)) {
-			image = images.get(name);
+	private synchronized ArrayList<SVGParserRenderer> getParsedImages() {
+		ArrayList<SVGParserRenderer> parsed = new ArrayList<SVGParserRenderer>();
+		for (FutureTask<SVGParserRenderer> task : images.values()) {
+			if (task.isDone()) {
+				try {
+					parsed.add(task.get());
+				} catch (InterruptedException e) {
+					// Not thrown, as the task is done.
+				} catch (ExecutionException e) {
+					// Removed by the thread that waited for it.
+				}
+			}
 		}
-		else {
-			image = new SVGParserRenderer(context, sourceStream);
-			images.put(name, image);
+		return parsed;
+	}
+
+	/**
+	 * Obtain the parse stats of every image held, added together. Only images
+	 * parsed while SVGParserRenderer.setParseStatsEnabled(true) was in effect
+	 * are included.
+	 */
+	public SVGParseStats getParseStats() {
+		SVGParseStats total = new SVGParseStats();
+		for (SVGParserRenderer image : getParsedImages()) {
+			SVGParseStats stats = image.getParseStats();
+			if (stats != null) {
+				total.add(stats);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Estimate the memory retained by all the images held. See
+	 * SVGMemoryEstimate.
+	 */
+	public SVGMemoryEstimate getRetainedSizeEstimate() {
+		SVGMemoryEstimate total = new SVGMemoryEstimate();
+		for (SVGParserRenderer image : getParsedImages()) {
+			total.add(image.getRetainedSizeEstimate());
 		}
-		return image;		
+		return total;
 	}
 	
 }
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg;
+
+/**
+ * An estimate of the heap, Java and native, retained by a parsed document,
+ * broken down by category. The sizes of objects whose memory is mostly
+ * native (Paths, Paints, Matrices and Shaders) can't be measured, so typical
+ * sizes are assumed for them; arrays and bitmaps are counted exactly. The
+ * estimate is meant for setting cache budgets and finding heavy documents
+ * rather than as an exact figure. Pattern tiles that are shared between
+ * documents through the PatternTileCache are counted in each document that
+ * uses them.
+ */
+public class SVGMemoryEstimate {
+
+	/** Paths and shapes. */
+	public static final int CATEGORY_PATHS = 0;
+	/** Styles, with their fill and stroke Paints, and per-path paints. */
+	public static final int CATEGORY_PAINTS = 1;
+	public static final int CATEGORY_MATRICES = 2;
+	/** Text, with its measured layouts and glyph runs. */
+	public static final int CATEGORY_TEXT = 3;
+	/** Gradient definitions and their Shaders. */
+	public static final int CATEGORY_GRADIENTS = 4;
+	/** Pattern tile bitmaps. */
+	public static final int CATEGORY_PATTERNS = 5;
+	/** The program itself and the lists and IDs that go with it. */
+	public static final int CATEGORY_PROGRAM = 6;
+
+	public static final int CATEGORY_COUNT = 7;
+
+	private static final String[] CATEGORY_NAMES = { "paths", "paints",
+			"matrices", "text", "gradients", "patterns", "program" };
+
+	// Assumed sizes, in bytes, of objects that can't be measured.
+	static final int OBJECT_BYTES = 16;
+	static final int REFERENCE_BYTES = 4;
+	static final int PATH_BYTES = 96;
+	static final int PATH_COMMAND_BYTES = 20;
+	// Shapes other than <path> don't record how many commands they have.
+	static final int DEFAULT_PATH_COMMANDS = 5;
+	static final int PAINT_BYTES = 200;
+	static final int MATRIX_BYTES = 64;
+	static final int SHADER_BYTES = 120;
+	static final int STYLE_BYTES = 48;
+	static final int TEXTSTRING_BYTES = 120;
+	static final int GRADIENT_BYTES = 96;
+	static final int ARC_BYTES = 64;
+
+	private final long[] mBytes = new long[CATEGORY_COUNT];
+	private int mDocumentCount;
+
+	public static String getCategoryName(int category) {
+		return CATEGORY_NAMES[category];
+	}
+
+	public long getBytes(int category) {
+		return mBytes[category];
+	}
+
+	public long getTotalBytes() {
+		long total = 0;
+		for (long bytes : mBytes) {
+			total += bytes;
+		}
+		return total;
+	}
+
+	/**
+	 * @return The number of documents the estimate covers.
+	 */
+	public int getDocumentCount() {
+		return mDocumentCount;
+	}
+
+	void add(int category, long bytes) {
+		mBytes[category] += bytes;
+	}
+
+	void addDocument() {
+		mDocumentCount++;
+	}
+
+	/**
+	 * Add another estimate to this one.
+	 */
+	public void add(SVGMemoryEstimate other) {
+		for (int i = 0; i < CATEGORY_COUNT; i++) {
+			mBytes[i] += other.mBytes[i];
+		}
+		mDocumentCount += other.mDocumentCount;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("documents=").append(mDocumentCount);
+		sb.append(" total_kb=").append(getTotalBytes() / 1024);
+		for (int i = 0; i < CATEGORY_COUNT; i++) {
+			sb.append(' ').append(CATEGORY_NAMES[i]).append("_kb=")
+					.append(mBytes[i] / 1024);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg;
+
+/**
+ * Thrown when a document is parsed in strict mode and a problem is found.
+ * See SVGParserRenderer(Context, InputStream, boolean).
+ */
+public class SVGParseException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final SVGDiagnostics.Warning mWarning;
+
+	public SVGParseException(SVGDiagnostics.Warning warning) {
+		super(warning.toString());
+		mWarning = warning;
+	}
+
+	/**
+	 * @return The problem that stopped the parse.
+	 */
+	public SVGDiagnostics.Warning getWarning() {
+		return mWarning;
+	}
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg;
+
+/**
+ * Timings and counts recorded while loading a document, showing where the
+ * time went: XML parsing, path tokenizing, transform parsing, gradient
+ * building, typeface loading, compiling the program, or rendering pattern
+ * tiles (which happens when each pattern is first drawn). Recording is off by
+ * default and is enabled with SVGParserRenderer.setParseStatsEnabled(). The
+ * stats of a single document are obtained with
+ * SVGParserRenderer.getParseStats(), and those of every document loaded
+ * through the SVGFlyweightFactory with SVGFlyweightFactory.getParseStats().
+ */
+public class SVGParseStats {
+
+	/**
+	 * SAX parsing and element handling, excluding the stages below that take
+	 * place during it.
+	 */
+	public static final int STAGE_XML = 0;
+	/** Tokenizing path data and building Paths. */
+	public static final int STAGE_PATH = 1;
+	/** Parsing transform attributes. */
+	public static final int STAGE_TRANSFORM = 2;
+	/** Creating gradient Shaders. */
+	public static final int STAGE_GRADIENT = 3;
+	/** Loading typefaces from assets. */
+	public static final int STAGE_TYPEFACE = 4;
+	/** Building the program and the compile passes over it. */
+	public static final int STAGE_COMPILE = 5;
+	/** Rendering pattern tiles. */
+	public static final int STAGE_PATTERN_TILE = 6;
+
+	public static final int STAGE_COUNT = 7;
+
+	private static final String[] STAGE_NAMES = { "xml", "path", "transform",
+			"gradient", "typeface", "compile", "pattern_tile" };
+
+	private final long[] mStageNanos = new long[STAGE_COUNT];
+	private int mDocumentCount;
+	private int mElementCount;
+	private int mPathCount;
+	private int mPathCommandCount;
+	private int mGradientCount;
+	private int mTextRunCount;
+	private int mProgramBytes;
+	private int mPatternTileCount;
+	private int mWarningCount;
+	private int mErrorCount;
+
+	public static String getStageName(int stage) {
+		return STAGE_NAMES[stage];
+	}
+
+	/**
+	 * @return The wall time spent in the stage, in nanoseconds.
+	 */
+	public synchronized long getStageNanos(int stage) {
+		return mStageNanos[stage];
+	}
+
+	/**
+	 * @return The wall time spent in all stages, in nanoseconds.
+	 */
+	public synchronized long getTotalNanos() {
+		long total = 0;
+		for (long nanos : mStageNanos) {
+			total += nanos;
+		}
+		return total;
+	}
+
+	/**
+	 * @return The number of documents these stats cover.
+	 */
+	public synchronized int getDocumentCount() {
+		return mDocumentCount;
+	}
+
+	public synchronized int getElementCount() {
+		return mElementCount;
+	}
+
+	/**
+	 * @return The number of paths and shapes.
+	 */
+	public synchronized int getPathCount() {
+		return mPathCount;
+	}
+
+	/**
+	 * @return The number of commands in path data, including implied
+	 *         (repeated) commands.
+	 */
+	public synchronized int getPathCommandCount() {
+		return mPathCommandCount;
+	}
+
+	public synchronized int getGradientCount() {
+		return mGradientCount;
+	}
+
+	/**
+	 * @return The number of runs that consecutive static text was coalesced
+	 *         into.
+	 */
+	public synchronized int getTextRunCount() {
+		return mTextRunCount;
+	}
+
+	/**
+	 * @return The size of the compiled program, in bytes.
+	 */
+	public synchronized int getProgramBytes() {
+		return mProgramBytes;
+	}
+
+	public synchronized int getPatternTileCount() {
+		return mPatternTileCount;
+	}
+
+	/**
+	 * @return The number of problems found in the documents, including
+	 *         errors. See SVGDiagnostics.
+	 */
+	public synchronized int getWarningCount() {
+		return mWarningCount;
+	}
+
+	/**
+	 * @return The number of documents whose parse was stopped by an error.
+	 */
+	public synchronized int getErrorCount() {
+		return mErrorCount;
+	}
+
+	synchronized void addDiagnostics(int warningCount, int errorCount) {
+		mWarningCount += warningCount;
+		mErrorCount += errorCount;
+	}
+
+	synchronized void addStageNanos(int stage, long nanos) {
+		mStageNanos[stage] += nanos;
+	}
+
+	synchronized void addDocument() {
+		mDocumentCount++;
+	}
+
+	synchronized void addElement() {
+		mElementCount++;
+	}
+
+	synchronized void addPath() {
+		mPathCount++;
+	}
+
+	synchronized void addPathCommands(int commandCount) {
+		mPathCommandCount += commandCount;
+	}
+
+	synchronized void addGradient() {
+		mGradientCount++;
+	}
+
+	synchronized void addTextRun() {
+		mTextRunCount++;
+	}
+
+	synchronized void setProgramBytes(int programBytes) {
+		mProgramBytes = programBytes;
+	}
+
+	synchronized void addPatternTile(long nanos) {
+		mPatternTileCount++;
+		mStageNanos[STAGE_PATTERN_TILE] += nanos;
+	}
+
+	/**
+	 * Add another set of stats to this one.
+	 */
+	public void add(SVGParseStats other) {
+		long[] stageNanos = new long[STAGE_COUNT];
+		int documentCount, elementCount, pathCount, pathCommandCount, gradientCount, textRunCount, programBytes, patternTileCount, warningCount, errorCount;
+		synchronized (other) {
+			System.arraycopy(other.mStageNanos, 0, stageNanos, 0, STAGE_COUNT);
+			documentCount = other.mDocumentCount;
+			elementCount = other.mElementCount;
+			pathCount = other.mPathCount;
+			pathCommandCount = other.mPathCommandCount;
+			gradientCount = other.mGradientCount;
+			textRunCount = other.mTextRunCount;
+			programBytes = other.mProgramBytes;
+			patternTileCount = other.mPatternTileCount;
+			warningCount = other.mWarningCount;
+			errorCount = other.mErrorCount;
+		}
+		synchronized (this) {
+			for (int i = 0; i < STAGE_COUNT; i++) {
+				mStageNanos[i] += stageNanos[i];
+			}
+			mDocumentCount += documentCount;
+			mElementCount += elementCount;
+			mPathCount += pathCount;
+			mPathCommandCount += pathCommandCount;
+			mGradientCount += gradientCount;
+			mTextRunCount += textRunCount;
+			mProgramBytes += programBytes;
+			mPatternTileCount += patternTileCount;
+			mWarningCount += warningCount;
+			mErrorCount += errorCount;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("documents=").append(mDocumentCount);
+		for (int i = 0; i < STAGE_COUNT; i++) {
+			sb.append(' ').append(STAGE_NAMES[i]).append("_us=")
+					.append(mStageNanos[i] / 1000);
+		}
+		sb.append(" elements=").append(mElementCount);
+		sb.append(" paths=").append(mPathCount);
+		sb.append(" path_commands=").append(mPathCommandCount);
+		sb.append(" gradients=").append(mGradientCount);
+		sb.append(" text_runs=").append(mTextRunCount);
+		sb.append(" program_bytes=").append(mProgramBytes);
+		sb.append(" pattern_tiles=").append(mPatternTileCount);
+		sb.append(" warnings=").append(mWarningCount);
+		sb.append(" errors=").append(mErrorCount);
+		return sb.toString();
+	}
+}
@@ -21,7 +21,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Stack;
@@ -33,7 +36,9 @@ import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
@@ -53,11 +58,15 @@ import android.graphics.Typeface;
 import android.util.Log;
 import android.view.View;
 
+import com.trevorpage.tpsvg.internal.ColourKeywords;
 import com.trevorpage.tpsvg.internal.Gradient;
 import com.trevorpage.tpsvg.internal.ParsedAttributes;
+import com.trevorpage.tpsvg.internal.PatternDigest;
 import com.trevorpage.tpsvg.internal.PatternFill;
+import com.trevorpage.tpsvg.internal.PreparedPaint;
 import com.trevorpage.tpsvg.internal.SVGPath;
-import com.trevorpage.tpsvg.internal.Util;
+import com.trevorpage.tpsvg.internal.TextLayout;
+import com.trevorpage.tpsvg.internal.TextRun;
 
 public class SVGParserRenderer extends DefaultHandler {
 
@@ -94,9 +103,13 @@ public class SVGParserRenderer extends DefaultHandler {
 	private static final String STARTTAG_RADIALGRADIENT = "radialGradient";
 	private static final String STARTTAG_LINEARGRADIENT = "linearGradient";
 	private static final String STARTTAG_STOP = "stop";
-	private static final String STARTTAG_DEFS = "defs";
 	private static final String STARTTAG_PATTERN = "pattern";
 
+	private static final String SVG_NAMESPACE = "http://www.w3.org/2000/svg";
+	/** Elements that are not drawn, and so can be ignored without a warning. */
+	private static final HashSet<String> NON_RENDERING_ELEMENTS = new HashSet<String>(
+			Arrays.asList("defs", "title", "desc", "metadata"));
+
 	private static final String SPECIAL_ID_PREFIX_ANIM = "_anim";
 
 	// private static final String SPECIAL_ID_PREFIX_META = "_meta";
@@ -104,7 +117,7 @@ public class SVGParserRenderer extends DefaultHandler {
 
 	/** Supported standard SVG attributes */
 	private enum StandardAttributes {
-		x, y, x1, y1, x2, y2, cx, cy, fx, fy, r, rx, ry, height, width, d, transform, gradientTransform, style, href, id, opacity, fill, fill_opacity, font_size, font_family, stroke, stroke_fill, stroke_opacity, stroke_width, text_align, text_anchor, offset, points, viewBox, novalue, lengthAdjust, textLength;
+		x, y, x1, y1, x2, y2, cx, cy, fx, fy, r, rx, ry, height, width, d, transform, gradientTransform, style, href, id, opacity, fill, fill_opacity, font_size, font_family, stroke, stroke_fill, stroke_opacity, stroke_width, text_align, text_anchor, offset, stop_color, stop_opacity, points, viewBox, novalue, lengthAdjust, textLength;
 
 		public static StandardAttributes toAttr(String str) {
 			try {
@@ -142,6 +155,13 @@ public class SVGParserRenderer extends DefaultHandler {
 	ArrayList<Paint> paintStack = new ArrayList<Paint>();
 	ArrayList<SvgStyle> styleList = new ArrayList<SvgStyle>();
 	ArrayList<Gradient> gradientList = new ArrayList<Gradient>();
+	private HashMap<String, Gradient> mGradientMap = new HashMap<String, Gradient>();
+	private HashMap<GradientShaderKey, Shader> mGradientShaderPool = new HashMap<GradientShaderKey, Shader>();
+	// The Gradient each gradient Shader was created from, so that a copy can
+	// be made.
+	private IdentityHashMap<Shader, Gradient> mShaderGradients = new IdentityHashMap<Shader, Gradient>();
+	private int mGradientShaderCount;
+	private int mFoldedGradientCount;
 	ArrayList<Textstring> textstringList = new ArrayList<Textstring>();
 	HashMap<String, GroupJumpTo> subtreeJumpMap = new HashMap<String, GroupJumpTo>();
 	ArrayList<String> idstringList = new ArrayList<String>();
@@ -151,7 +171,6 @@ public class SVGParserRenderer extends DefaultHandler {
 	private int tagDepth;
 	private String mCurrentElement;
 	private Gradient currentGradient = new Gradient();
-	private int codePtr;
 	private ArrayList<Byte> bytecodeList; // Expandable list used for initial
 											// creation of bytecode from
 											// parsing.
@@ -169,12 +188,45 @@ public class SVGParserRenderer extends DefaultHandler {
 	private float mCurrentY;
 	private float mLastControlPointX = 0;
 	private float mLastControlPointY = 0;
+	// The isolated arc of the path being parsed, if it has one, so that the
+	// path's element handle can be given to it.
+	private Arc mIsolatedArc;
 
 	private Context mContext;
 	private HashMap<String, String> mPrivateDataMap;
 	private String mPrivateDataCurrentKey;
 
 	private HashMap<String, PatternFill> mPatternMap = new HashMap<String, PatternFill>();
+	// Digests of the content of the <pattern> elements currently being parsed.
+	private ArrayList<PatternDigest> mPatternDigests = new ArrayList<PatternDigest>();
+
+	private static volatile boolean sParseStatsEnabled = false;
+	// Null unless parse stats are enabled.
+	private SVGParseStats mParseStats;
+
+	// The absolute length units, and their sizes in user units.
+	private static final String[] ABSOLUTE_UNITS = { "px", "pt", "pc", "mm",
+			"cm", "in" };
+	private static final float[] ABSOLUTE_UNIT_SIZES = { 1f, 1.25f, 15f,
+			3.543307f, 35.43307f, 90f };
+
+	// Whether the parse in progress is strict.
+	private boolean mStrictParsing = false;
+	private SVGDiagnostics mDiagnostics = new SVGDiagnostics();
+	private Locator mLocator;
+	// Names (and IDs, where given) of the elements enclosing the current one.
+	private ArrayList<String> mElementPath = new ArrayList<String>();
+	// IDs that references to unknown elements have been reported for.
+	private HashSet<String> mUnresolvedReferences = new HashSet<String>();
+
+	// Evaluator scratch state and Canvas wrapper, reused between frames.
+	private final EvaluatorState mEvaluatorState = new EvaluatorState();
+	private int mEvaluatorDepth = 0;
+	private final SVGAndroidCanvas mCanvasWrapper = new SVGAndroidCanvas(null);
+	private boolean mCanvasWrapperInUse = false;
+
+	private volatile boolean mRenderProfilingEnabled = false;
+	private volatile SVGRenderProfile mLastRenderProfile;
 
 	public SVGParserRenderer() {
 		mPrivateDataMap = new HashMap<String, String>();
@@ -196,6 +248,38 @@ public class SVGParserRenderer extends DefaultHandler {
 		parseImageFile(context, sourceStream);
 	}
 
+	/**
+	 * Parse a document, strictly or not. A strict parse throws an
+	 * SVGParseException at the first problem it finds (see SVGDiagnostics),
+	 * rather than ignoring the problem, so that broken documents are caught
+	 * early.
+	 */
+	public SVGParserRenderer(Context context, int resourceID,
+			boolean strictParsing) {
+		mPrivateDataMap = new HashMap<String, String>();
+		parseImageFile(context, resourceID, strictParsing);
+	}
+
+	/**
+	 * Parse a document, strictly or not. See SVGParserRenderer(Context, int,
+	 * boolean).
+	 */
+	public SVGParserRenderer(Context context, File sourceFile,
+			boolean strictParsing) throws FileNotFoundException {
+		mPrivateDataMap = new HashMap<String, String>();
+		parseImageFile(context, sourceFile, strictParsing);
+	}
+
+	/**
+	 * Parse a document, strictly or not. See SVGParserRenderer(Context, int,
+	 * boolean).
+	 */
+	public SVGParserRenderer(Context context, InputStream sourceStream,
+			boolean strictParsing) {
+		mPrivateDataMap = new HashMap<String, String>();
+		parseImageFile(context, sourceStream, strictParsing);
+	}
+
 	public void setPrivateDataNamespace(String namespace) {
 		mPrivateDataNamespace = namespace;
 	}
@@ -216,29 +300,77 @@ public class SVGParserRenderer extends DefaultHandler {
 
 	public void parseImageFile(Context context, File sourceFile)
 			throws FileNotFoundException {
-		InputStream inStream = new FileInputStream(sourceFile);
-		parseImageFile(context, inStream);
+		parseImageFile(context, sourceFile, false);
 	}
 
 	public void parseImageFile(Context context, int resourceID) {
+		parseImageFile(context, resourceID, false);
+	}
+
+	public void parseImageFile(Context context, InputStream inStream) {
+		parseImageFile(context, inStream, false);
+	}
+
+	public void parseImageFile(Context context, File sourceFile,
+			boolean strictParsing) throws FileNotFoundException {
+		InputStream inStream = new FileInputStream(sourceFile);
+		parseImageFile(context, inStream, strictParsing);
+	}
+
+	public void parseImageFile(Context context, int resourceID,
+			boolean strictParsing) {
 		Resources res = context.getResources();
 		InputStream inStream = res.openRawResource(resourceID);
-		parseImageFile(context, inStream);
+		parseImageFile(context, inStream, strictParsing);
 	}
 
-	public void parseImageFile(Context context, InputStream inStream) {
+	/**
+	 * Parse a document, replacing any parsed before.
+	 * 
+	 * @param strictParsing
+	 *            Throw an SVGParseException at the first problem found, rather
+	 *            than recording it in the diagnostics and carrying on.
+	 */
+	public void parseImageFile(Context context, InputStream inStream,
+			boolean strictParsing) {
+		mStrictParsing = strictParsing;
+		mParseStats = sParseStatsEnabled ? new SVGParseStats() : null;
+		mDiagnostics = new SVGDiagnostics();
+		mElementPath.clear();
+		mUnresolvedReferences.clear();
+		long parseStart = startTiming();
 		mContext = context;
+		try {
+			parseAndCompile(inStream, parseStart);
+		} finally {
+			mContext = null;
+			mLocator = null;
+			if (mParseStats != null) {
+				mParseStats.addDiagnostics(mDiagnostics.getWarningCount(),
+						mDiagnostics.getErrorCount());
+			}
+		}
+	}
+
+	private void parseAndCompile(InputStream inStream, long parseStart) {
 		tagDepth = 0;
-		codePtr = 0;
+		mRootSvgWidth = 100;
+		mRootSvgHeight = 100;
 		mParsedAttributes = new ParsedAttributes();
 
 		this.gradientList.clear();
+		mGradientMap.clear();
+		mGradientShaderPool.clear();
+		mShaderGradients.clear();
+		mGradientShaderCount = 0;
+		mFoldedGradientCount = 0;
 		this.matrixList.clear();
 		matrixEvStack.clear();
 		this.paintStack.clear();
 		this.pathList.clear();
 		this.styleList.clear();
 		this.arcsList.clear();
+		mPatternDigests.clear();
 
 		bytecodeList = new ArrayList<Byte>();
 
@@ -252,9 +384,31 @@ public class SVGParserRenderer extends DefaultHandler {
 			XMLReader xr = sp.getXMLReader();
 			xr.setContentHandler(this);
 			xr.parse(new InputSource(inStream));
+		} catch (SVGParseException e) {
+			throw e;
 		} catch (Exception e) {
+			// A strict mode failure from within a handler may reach here
+			// wrapped in a SAXException.
+			Throwable cause = e;
+			while (cause instanceof SAXException
+					&& ((SAXException) cause).getException() != null) {
+				cause = ((SAXException) cause).getException();
+			}
+			if (cause instanceof SVGParseException) {
+				throw (SVGParseException) cause;
+			}
+			int lineNumber = e instanceof SAXParseException ? ((SAXParseException) e)
+					.getLineNumber() : currentLineNumber();
+			warn(SVGDiagnostics.KIND_PARSE_ERROR, e.toString(), lineNumber);
+		}
+		if (mParseStats != null) {
+			// Stages timed so far took place within the SAX parse.
+			mParseStats.addStageNanos(SVGParseStats.STAGE_XML,
+					System.nanoTime() - parseStart
+							- mParseStats.getTotalNanos());
 		}
 
+		long compileStart = startTiming();
 		addInstruction(INST_END);
 
 		bytecodeArr = new byte[bytecodeList.size()];
@@ -262,19 +416,226 @@ public class SVGParserRenderer extends DefaultHandler {
 			bytecodeArr[i] = bytecodeList.get(i);
 		}
 
+		endTiming(SVGParseStats.STAGE_COMPILE, compileStart);
+
+		resolveGradients();
+
+		compileStart = startTiming();
+		coalesceTextRuns();
+		endTiming(SVGParseStats.STAGE_COMPILE, compileStart);
+
+		// Pattern shaders are created when each pattern is first drawn, at the
+		// scale it's drawn at, so only the references are resolved here.
 		for (SvgStyle style : styleList) {
-			if (style.mFillPattern != null) {
-				if (style.mFillPattern.getXLinkReferenceId() != null) {
-					style.mFillPattern.setXLinkReferencePatternFill(mPatternMap
-							.get(style.mFillPattern.getXLinkReferenceId()));
+			if (style.mFillPattern != null
+					&& style.mFillPattern.getXLinkReferenceId() != null) {
+				PatternFill reference = mPatternMap.get(style.mFillPattern
+						.getXLinkReferenceId());
+				if (reference == null) {
+					warnUnresolvedReference(style.mFillPattern
+							.getXLinkReferenceId());
 				}
-				style.fillPaint.setShader(style.mFillPattern
-						.createPatternShader(this));
-				style.mFillPattern = null;
+				style.mFillPattern.setXLinkReferencePatternFill(reference);
 			}
 		}
 
-		mContext = null;
+		if (mParseStats != null) {
+			mParseStats.addDocument();
+			mParseStats.setProgramBytes(bytecodeArr.length);
+		}
+	}
+
+	/**
+	 * @return The problems found while parsing the document.
+	 */
+	public SVGDiagnostics getDiagnostics() {
+		return mDiagnostics;
+	}
+
+	@Override
+	public void setDocumentLocator(Locator locator) {
+		mLocator = locator;
+	}
+
+	private int currentLineNumber() {
+		return mLocator != null ? mLocator.getLineNumber() : -1;
+	}
+
+	private void warn(int kind, String message) {
+		warn(kind, message, currentLineNumber());
+	}
+
+	/**
+	 * Record a problem with the document, or in strict mode, abort the parse.
+	 */
+	private void warn(int kind, String message, int lineNumber) {
+		StringBuilder elementPath = new StringBuilder();
+		for (String element : mElementPath) {
+			if (elementPath.length() > 0) {
+				elementPath.append('/');
+			}
+			elementPath.append(element);
+		}
+		SVGDiagnostics.Warning warning = mDiagnostics.add(kind, message,
+				elementPath.toString(), lineNumber);
+		if (mStrictParsing) {
+			throw new SVGParseException(warning);
+		}
+	}
+
+	private void warnUnresolvedReference(String id) {
+		// Styles inherit references, so report each one only once.
+		if (mUnresolvedReferences.add(id)) {
+			warn(SVGDiagnostics.KIND_UNRESOLVED_REFERENCE, "No element with id "
+					+ id, -1);
+		}
+	}
+
+	/**
+	 * Enable or disable the recording of SVGParseStats for documents parsed
+	 * from now on. Recording is disabled by default.
+	 */
+	public static void setParseStatsEnabled(boolean enabled) {
+		sParseStatsEnabled = enabled;
+	}
+
+	public static boolean isParseStatsEnabled() {
+		return sParseStatsEnabled;
+	}
+
+	/**
+	 * @return The stats recorded while parsing the document, which continue
+	 *         to be updated as pattern tiles are rendered, or null if
+	 *         recording wasn't enabled when it was parsed.
+	 */
+	public SVGParseStats getParseStats() {
+		return mParseStats;
+	}
+
+	/**
+	 * Called by SVGPatternShader when it has rendered a tile for this
+	 * document.
+	 */
+	void addPatternTileStats(long nanos) {
+		if (mParseStats != null) {
+			mParseStats.addPatternTile(nanos);
+		}
+	}
+
+	/**
+	 * Enable or disable profiling of paintImage(). When enabled, each call
+	 * records an SVGRenderProfile, which is obtained with
+	 * getLastRenderProfile(). Profiling adds some overhead of its own, so
+	 * should only be enabled when it's needed.
+	 */
+	public void setRenderProfilingEnabled(boolean enabled) {
+		mRenderProfilingEnabled = enabled;
+		if (!enabled) {
+			mLastRenderProfile = null;
+		}
+	}
+
+	public boolean isRenderProfilingEnabled() {
+		return mRenderProfilingEnabled;
+	}
+
+	/**
+	 * @return The profile of the most recent call to paintImage() made while
+	 *         profiling was enabled, or null if there hasn't been one.
+	 */
+	public SVGRenderProfile getLastRenderProfile() {
+		return mLastRenderProfile;
+	}
+
+	/**
+	 * Estimate the memory retained by the parsed document, by category. See
+	 * SVGMemoryEstimate.
+	 */
+	public synchronized SVGMemoryEstimate getRetainedSizeEstimate() {
+		SVGMemoryEstimate estimate = new SVGMemoryEstimate();
+		estimate.addDocument();
+
+		for (Path path : pathList) {
+			int commands = SVGMemoryEstimate.DEFAULT_PATH_COMMANDS;
+			int preparedPaints = 0;
+			if (path instanceof SVGPath) {
+				SVGPath svgPath = (SVGPath) path;
+				if (svgPath.getCommandCount() > 0) {
+					commands = svgPath.getCommandCount();
+				}
+				preparedPaints = svgPath.getPreparedPaintCount();
+			}
+			estimate.add(SVGMemoryEstimate.CATEGORY_PATHS,
+					SVGMemoryEstimate.PATH_BYTES + commands
+							* SVGMemoryEstimate.PATH_COMMAND_BYTES);
+			// Each prepared paint has its own Paint, shader copy and matrices.
+			estimate.add(SVGMemoryEstimate.CATEGORY_PAINTS, preparedPaints
+					* (SVGMemoryEstimate.PAINT_BYTES
+							+ SVGMemoryEstimate.SHADER_BYTES + 2 * SVGMemoryEstimate.MATRIX_BYTES));
+		}
+
+		estimate.add(SVGMemoryEstimate.CATEGORY_PAINTS, styleList.size()
+				* (SVGMemoryEstimate.STYLE_BYTES + 2 * SVGMemoryEstimate.PAINT_BYTES));
+
+		// The same Matrix may be referred to more than once.
+		IdentityHashMap<Matrix, Matrix> matrices = new IdentityHashMap<Matrix, Matrix>();
+		for (Matrix matrix : matrixList) {
+			matrices.put(matrix, matrix);
+		}
+		estimate.add(SVGMemoryEstimate.CATEGORY_MATRICES, matrices.size()
+				* SVGMemoryEstimate.MATRIX_BYTES);
+
+		for (Textstring ts : textstringList) {
+			long bytes = SVGMemoryEstimate.TEXTSTRING_BYTES
+					+ ts.string.capacity() * 2
+					+ ts.mStrokeLayout.getArrayBytes()
+					+ ts.mFillLayout.getArrayBytes();
+			if (ts.mTextRun != null && ts.mTextRunHead) {
+				bytes += SVGMemoryEstimate.OBJECT_BYTES
+						+ ts.mTextRun.getArrayBytes();
+			}
+			estimate.add(SVGMemoryEstimate.CATEGORY_TEXT, bytes);
+		}
+
+		for (Gradient gradient : gradientList) {
+			estimate.add(SVGMemoryEstimate.CATEGORY_GRADIENTS,
+					SVGMemoryEstimate.GRADIENT_BYTES
+							+ gradient.getStopCount() * 8
+							+ (gradient.matrix != null ? SVGMemoryEstimate.MATRIX_BYTES
+									: 0));
+		}
+		estimate.add(SVGMemoryEstimate.CATEGORY_GRADIENTS,
+				mGradientShaderPool.size() * SVGMemoryEstimate.SHADER_BYTES);
+
+		for (PatternFill pattern : mPatternMap.values()) {
+			estimate.add(SVGMemoryEstimate.CATEGORY_PATTERNS,
+					SVGMemoryEstimate.OBJECT_BYTES + pattern.getBitmapBytes());
+		}
+
+		long programBytes = bytecodeArr != null ? bytecodeArr.length : 0;
+		programBytes += SVGMemoryEstimate.REFERENCE_BYTES
+				* (matrixList.size() + pathList.size() + styleList.size()
+						+ textstringList.size() + idstringList.size() + arcsList
+						.size());
+		for (String id : idstringList) {
+			programBytes += SVGMemoryEstimate.OBJECT_BYTES + id.length() * 2;
+		}
+		programBytes += arcsList.size() * SVGMemoryEstimate.ARC_BYTES;
+		programBytes += subtreeJumpMap.size()
+				* (SVGMemoryEstimate.OBJECT_BYTES * 3);
+		estimate.add(SVGMemoryEstimate.CATEGORY_PROGRAM, programBytes);
+
+		return estimate;
+	}
+
+	private long startTiming() {
+		return mParseStats != null ? System.nanoTime() : 0;
+	}
+
+	private void endTiming(int stage, long start) {
+		if (mParseStats != null) {
+			mParseStats.addStageNanos(stage, System.nanoTime() - start);
+		}
 	}
 
 	@Override
@@ -282,6 +643,10 @@ public class SVGParserRenderer extends DefaultHandler {
 			throws SAXException {
 		super.characters(ch, start, length);
 
+		for (PatternDigest digest : mPatternDigests) {
+			digest.update(ch, start, length);
+		}
+
 		if (mCurrentElement.equalsIgnoreCase(STARTTAG_TEXT)) {
 			text_characters(ch, start, length);
 		} else if (mCurrentElement.equalsIgnoreCase(STARTTAG_TSPAN)) {
@@ -300,14 +665,19 @@ public class SVGParserRenderer extends DefaultHandler {
 		mPrivateDataCurrentKey = "";
 		mCurrentElement = "";
 
+		for (PatternDigest digest : mPatternDigests) {
+			digest.update("/" + localName);
+		}
+		if (!mElementPath.isEmpty()) {
+			mElementPath.remove(mElementPath.size() - 1);
+		}
+
 		if (localName.equalsIgnoreCase(STARTTAG_G)) {
 			addEndGroup();
 		} else if (localName.equalsIgnoreCase(STARTTAG_LINEARGRADIENT)) {
 			finaliseLinearGradient();
 		} else if (localName.equalsIgnoreCase(STARTTAG_RADIALGRADIENT)) {
 			finaliseRadialGradient();
-		} else if (localName.equalsIgnoreCase(STARTTAG_DEFS)) {
-			completeXLinks();
 		} else if (localName.equalsIgnoreCase(STARTTAG_PATTERN)) {
 			endPattern();
 		}
@@ -340,6 +710,12 @@ public class SVGParserRenderer extends DefaultHandler {
 
 		super.startElement(uri, localName, qName, attributes);
 
+		if (mParseStats != null) {
+			mParseStats.addElement();
+		}
+		String elementId = attributes.getValue("id");
+		mElementPath.add(elementId != null ? localName + "#" + elementId
+				: localName);
 		matrixExistsAtDepth[tagDepth] = false;
 		mCurrentElement = localName;
 		mParsedAttributes.svgStyle = new SvgStyle(mStyleParseStack.peek());
@@ -390,6 +766,16 @@ public class SVGParserRenderer extends DefaultHandler {
 		} else if (localName.equalsIgnoreCase(STARTTAG_PATTERN)) {
 			parseAttributes(attributes);
 			startPattern();
+		} else if ((uri == null || uri.length() == 0 || uri
+				.equals(SVG_NAMESPACE))
+				&& mPrivateDataCurrentKey == null
+				&& !NON_RENDERING_ELEMENTS.contains(localName)) {
+			warn(SVGDiagnostics.KIND_UNSUPPORTED_ELEMENT, "Element <"
+					+ localName + "> is not supported");
+		}
+
+		if (!mPatternDigests.isEmpty()) {
+			digestElement(localName, attributes);
 		}
 
 		mStyleParseStack.add(mParsedAttributes.svgStyle);
@@ -404,6 +790,7 @@ public class SVGParserRenderer extends DefaultHandler {
 		mParsedAttributes.transformData = null;
 		mParsedAttributes.styleData = null;
 		mParsedAttributes.id = "";
+		mParsedAttributes.xlink_href = null;
 		mParsedAttributes.anchorRight = false;
 		mParsedAttributes.anchorBottom = false;
 		mParsedAttributes.stretchToRemainderWidth = false;
@@ -437,6 +824,11 @@ public class SVGParserRenderer extends DefaultHandler {
 		mParsedAttributes.textLength = 0;
 		mParsedAttributes.textLengthAdjustSize = false;
 
+		mParsedAttributes.stopOffset = 0;
+		mParsedAttributes.stopColor = 0;
+		mParsedAttributes.stopOpacity = 1;
+		mParsedAttributes.hasStopColor = false;
+
 		// During execution of the loop, the length of attrImpl will expand if a
 		// <style> attribute
 		// exists. A <style> tag's value itself contains a list of
@@ -460,63 +852,78 @@ public class SVGParserRenderer extends DefaultHandler {
 			switch (StandardAttributes.toAttr(attrImpl.getLocalName(n))) {
 
 			case x:
-				mParsedAttributes.x = parseCoOrdinate(value);
+				mParsedAttributes.x = parseCoOrdinate(value,
+						mParsedAttributes.x, percentBaseX());
 				break;
 
 			case y:
-				mParsedAttributes.y = parseCoOrdinate(value);
+				mParsedAttributes.y = parseCoOrdinate(value,
+						mParsedAttributes.y, percentBaseY());
 				break;
 
 			case x1:
-				mParsedAttributes.x1 = parseCoOrdinate(value);
+				mParsedAttributes.x1 = parseCoOrdinate(value,
+						mParsedAttributes.x1, percentBaseX());
 				break;
 
 			case y1:
-				mParsedAttributes.y1 = parseCoOrdinate(value);
+				mParsedAttributes.y1 = parseCoOrdinate(value,
+						mParsedAttributes.y1, percentBaseY());
 				break;
 
 			case x2:
-				mParsedAttributes.x2 = parseCoOrdinate(value);
+				mParsedAttributes.x2 = parseCoOrdinate(value,
+						mParsedAttributes.x2, percentBaseX());
 				break;
 
 			case y2:
-				mParsedAttributes.y2 = parseCoOrdinate(value);
+				mParsedAttributes.y2 = parseCoOrdinate(value,
+						mParsedAttributes.y2, percentBaseY());
 				break;
 
 			case cx:
-				mParsedAttributes.cx = parseCoOrdinate(value);
+				mParsedAttributes.cx = parseCoOrdinate(value,
+						mParsedAttributes.cx, percentBaseX());
 				break;
 
 			case cy:
-				mParsedAttributes.cy = parseCoOrdinate(value);
+				mParsedAttributes.cy = parseCoOrdinate(value,
+						mParsedAttributes.cy, percentBaseY());
 				break;
 
 			case r:
-				mParsedAttributes.radius = parseCoOrdinate(value);
+				mParsedAttributes.radius = parseCoOrdinate(value,
+						mParsedAttributes.radius, percentBaseDiagonal());
 				break;
 
 			case fx:
-				mParsedAttributes.fx = parseCoOrdinate(value);
+				mParsedAttributes.fx = parseCoOrdinate(value,
+						mParsedAttributes.fx, percentBaseX());
 				break;
 
 			case fy:
-				mParsedAttributes.fy = parseCoOrdinate(value);
+				mParsedAttributes.fy = parseCoOrdinate(value,
+						mParsedAttributes.fy, percentBaseY());
 				break;
 
 			case rx:
-				mParsedAttributes.rx = parseCoOrdinate(value);
+				mParsedAttributes.rx = parseCoOrdinate(value,
+						mParsedAttributes.rx, percentBaseX());
 				break;
 
 			case ry:
-				mParsedAttributes.ry = parseCoOrdinate(value);
+				mParsedAttributes.ry = parseCoOrdinate(value,
+						mParsedAttributes.ry, percentBaseY());
 				break;
 
 			case width:
-				mParsedAttributes.width = parseCoOrdinate(value);
+				mParsedAttributes.width = parseCoOrdinate(value,
+						mParsedAttributes.width, percentBaseX());
 				break;
 
 			case height:
-				mParsedAttributes.height = parseCoOrdinate(value);
+				mParsedAttributes.height = parseCoOrdinate(value,
+						mParsedAttributes.height, percentBaseY());
 				break;
 
 			case d:
@@ -547,14 +954,18 @@ public class SVGParserRenderer extends DefaultHandler {
 				break;
 
 			case font_size:
-				mParsedAttributes.svgStyle.strokePaint
-						.setTextSize(parseCoOrdinate(value));
-				mParsedAttributes.svgStyle.fillPaint
-						.setTextSize(parseCoOrdinate(value));
+				// A percentage is of the inherited size.
+				float textSize = mParsedAttributes.svgStyle.fillPaint
+						.getTextSize();
+				textSize = parseCoOrdinate(value, textSize, textSize);
+				mParsedAttributes.svgStyle.strokePaint.setTextSize(textSize);
+				mParsedAttributes.svgStyle.fillPaint.setTextSize(textSize);
 				break;
 
 			case font_family:
+				long typefaceStart = startTiming();
 				Typeface typeface = getTypeface(value);
+				endTiming(SVGParseStats.STAGE_TYPEFACE, typefaceStart);
 				mParsedAttributes.svgStyle.strokePaint.setTypeface(typeface);
 				mParsedAttributes.svgStyle.fillPaint.setTypeface(typeface);
 				break;
@@ -565,7 +976,8 @@ public class SVGParserRenderer extends DefaultHandler {
 						// Assume the form fill:url(#[ID_STRING])
 						String idString = value
 								.substring(5, value.length() - 1);
-						int gradientIdx = this.getGradientByIdString(idString);
+						Gradient gradient = mGradientMap.get(idString);
+						mParsedAttributes.svgStyle.mFillGradientId = null;
 						// TODO: This is giving the Paint a *reference* to
 						// one
 						// of the Shader objects
@@ -581,13 +993,18 @@ public class SVGParserRenderer extends DefaultHandler {
 						// will affect
 						// subsequent uses of that Shader.
 
-						if (gradientIdx != -1) {
+						if (gradient != null && resolveGradient(gradient)) {
 							mParsedAttributes.svgStyle.fillPaint
-									.setShader(gradientList.get(gradientIdx).shader);
+									.setShader(gradient.shader);
 						} else if (mPatternMap.containsKey(idString)) {
 							// s.fillPaint.setShader(mPatternList.get(idString).getShader());
 							mParsedAttributes.svgStyle.mFillPattern = mPatternMap
 									.get(idString);
+						} else {
+							// Possibly a forward reference, or a gradient
+							// that inherits its stops from one not yet
+							// parsed. Bound once parsing has finished.
+							mParsedAttributes.svgStyle.mFillGradientId = idString;
 						}
 					}
 
@@ -602,6 +1019,7 @@ public class SVGParserRenderer extends DefaultHandler {
 								.getAlpha();
 						mParsedAttributes.svgStyle.fillPaint
 								.setColor(parseColour(value));
+						mParsedAttributes.svgStyle.mFillGradientId = null;
 						mParsedAttributes.svgStyle.fillPaint.setAlpha(alpha);
 					}
 					mParsedAttributes.svgStyle.fillPaint
@@ -612,6 +1030,7 @@ public class SVGParserRenderer extends DefaultHandler {
 				} else {
 					// The attribute is fill="none".
 					mParsedAttributes.svgStyle.hasFill = false;
+					mParsedAttributes.svgStyle.mFillGradientId = null;
 				}
 				break;
 
@@ -626,7 +1045,22 @@ public class SVGParserRenderer extends DefaultHandler {
 				break;
 
 			case offset:
-				mParsedAttributes.offset = value;
+				if (value.endsWith("%")) {
+					mParsedAttributes.stopOffset = parseAttrValueFloat(value
+							.substring(0, value.length() - 1)) / 100;
+				} else {
+					mParsedAttributes.stopOffset = parseAttrValueFloat(value);
+				}
+				break;
+
+			case stop_color:
+				mParsedAttributes.stopColor = parseColour(value);
+				mParsedAttributes.hasStopColor = true;
+				break;
+
+			case stop_opacity:
+				mParsedAttributes.stopOpacity = parseAttrValueFloat(value);
+				mParsedAttributes.hasStopColor = true;
 				break;
 
 			case fill_opacity: {
@@ -649,12 +1083,18 @@ public class SVGParserRenderer extends DefaultHandler {
 				if (!value.equals("none")) {
 					if (value.startsWith("url")) {
 						// Assume the form fill:url(#[ID_STRING])
-						int gradientIdx = this.getGradientByIdString(value
-								.substring(5, value.length() - 1));
+						String idString = value
+								.substring(5, value.length() - 1);
+						Gradient gradient = mGradientMap.get(idString);
 						// TODO: See comments further above (in 'fill')
 						// regarding Shader.
-						mParsedAttributes.svgStyle.strokePaint
-								.setShader(gradientList.get(gradientIdx).shader);
+						if (gradient != null && resolveGradient(gradient)) {
+							mParsedAttributes.svgStyle.strokePaint
+									.setShader(gradient.shader);
+							mParsedAttributes.svgStyle.mStrokeGradientId = null;
+						} else {
+							mParsedAttributes.svgStyle.mStrokeGradientId = idString;
+						}
 					} else {
 						// Set the colour, while preserving the alpha (in
 						// case
@@ -666,6 +1106,7 @@ public class SVGParserRenderer extends DefaultHandler {
 								.getAlpha();
 						mParsedAttributes.svgStyle.strokePaint
 								.setColor(parseColour(value));
+						mParsedAttributes.svgStyle.mStrokeGradientId = null;
 						mParsedAttributes.svgStyle.strokePaint.setAlpha(alpha);
 					}
 					mParsedAttributes.svgStyle.strokePaint
@@ -678,11 +1119,14 @@ public class SVGParserRenderer extends DefaultHandler {
 					mParsedAttributes.svgStyle.hasStroke = true;
 				} else { // The attribute is stroke="none".
 					mParsedAttributes.svgStyle.hasStroke = false;
+					mParsedAttributes.svgStyle.mStrokeGradientId = null;
 				}
 				break;
 
 			case stroke_width:
-				float width = parseCoOrdinate(value);
+				float width = parseCoOrdinate(value,
+						mParsedAttributes.svgStyle.strokePaint.getStrokeWidth() * 1.5f,
+						percentBaseDiagonal());
 				// .setStrokeWidth doesn't seem to deal in px directly;
 				// there
 				// seems to be scaling of 1.5 applied, and this doesn't seem
@@ -713,7 +1157,8 @@ public class SVGParserRenderer extends DefaultHandler {
 				break;
 
 			case textLength:
-				float length = parseCoOrdinate(value);
+				float length = parseCoOrdinate(value,
+						mParsedAttributes.textLength, percentBaseX());
 				mParsedAttributes.textLength = length;
 				break;
 
@@ -872,6 +1317,7 @@ public class SVGParserRenderer extends DefaultHandler {
 		addBeginPattern(mParsedAttributes.id);
 
 		PatternFill patternFill = new PatternFill();
+		startPatternDigest(patternFill);
 
 		if (mParsedAttributes.xlink_href != null) {
 			// Assume the form xlink:href="#some_id_string"
@@ -897,7 +1343,7 @@ public class SVGParserRenderer extends DefaultHandler {
 			} else {
 				String id = mParsedAttributes.id != null ? mParsedAttributes.id
 						: "(no ID specified)";
-				Log.w(LOGTAG,
+				warn(SVGDiagnostics.KIND_INVALID_ELEMENT,
 						"Pattern element "
 								+ id
 								+ " doesn't have viewBox attribute, or has zero viewBox width or height");
@@ -911,6 +1357,66 @@ public class SVGParserRenderer extends DefaultHandler {
 	 */
 	private void endPattern() {
 		addEndPattern();
+		if (!mPatternDigests.isEmpty()) {
+			PatternDigest digest = mPatternDigests.remove(mPatternDigests
+					.size() - 1);
+			digest.getPatternFill().setContentKey(digest.finish());
+		}
+	}
+
+	/**
+	 * Start a digest of a pattern's content, which begins with the transform
+	 * and style that the pattern inherits. Every pattern element gets one so
+	 * that endPattern() can pair them up, though it's only used by patterns
+	 * that have their own content rather than an xlink reference.
+	 */
+	private void startPatternDigest(PatternFill patternFill) {
+		PatternDigest digest = new PatternDigest(patternFill);
+		float[] values = new float[9];
+		matrixEvStack.peek().getValues(values);
+		for (float value : values) {
+			digest.update(value);
+		}
+		SvgStyle style = mParsedAttributes.svgStyle;
+		digest.update((style.hasFill ? 1 : 0) | (style.hasStroke ? 2 : 0));
+		digest.update(style.fillPaint.getColor());
+		digest.update(style.strokePaint.getColor());
+		digest.update(style.strokePaint.getStrokeWidth());
+		digest.update(style.strokePaint.getStrokeCap().ordinal());
+		digest.update(style.strokePaint.getStrokeJoin().ordinal());
+		digest.update(style.strokePaint.getStrokeMiter());
+		digest.update(style.masterOpacity);
+		digest.update(style.fillOpacity);
+		digest.update(style.strokeOpacity);
+		digest.update(style.fillPaint.getTextSize());
+		digest.update(style.fillPaint.getTextAlign().ordinal());
+		// Shaders, typefaces and path effects such as dashes can't be read
+		// back to be digested.
+		if (style.fillPaint.getShader() != null
+				|| style.strokePaint.getShader() != null
+				|| style.fillPaint.getTypeface() != Typeface.DEFAULT
+				|| style.fillPaint.getPathEffect() != null
+				|| style.strokePaint.getPathEffect() != null) {
+			digest.setNotShareable();
+		}
+		mPatternDigests.add(digest);
+	}
+
+	/**
+	 * Add an element inside a pattern (or the pattern element itself) to the
+	 * digests of the patterns that contain it. IDs are left out, as they don't
+	 * affect what's drawn.
+	 */
+	private void digestElement(String localName, Attributes attributes) {
+		for (PatternDigest digest : mPatternDigests) {
+			digest.update(localName);
+			for (int i = 0; i < attributes.getLength(); i++) {
+				if (!attributes.getLocalName(i).equals("id")) {
+					digest.update(attributes.getQName(i));
+					digest.update(attributes.getValue(i));
+				}
+			}
+		}
 	}
 
 	/**
@@ -924,165 +1430,199 @@ public class SVGParserRenderer extends DefaultHandler {
 	}
 
 	/**
-	 * Is called when all of the SVG XML file has been parsed. It performs
-	 * cross-referencing and copying of data due to xlink:hrefs. For example,
-	 * LinearGradient and RadialGradient use xlink:href a lot because gradients
-	 * often reference stop colours from another gradient ID. This task has to
-	 * be performed after parsing and not during because it's possible to have
-	 * both backward and forward references.
-	 * 
-	 * Actually - this is now called when the 'defs' close tag is encountered.
-	 * The gradients need to be all fully set up before we start generating
-	 * paths! This assumes for now that there's only one defs block... which is
-	 * bound to be a wrong thing to assume. Also, it's probably wrong to assume
-	 * that a defs block can't occur again in the document. Something to be
-	 * careful of and improve later. We might need to implement pointers for
-	 * things like gradientList to keep tabs on which ones were newly added by a
-	 * given defs block. Also, xrefs between gradients could be at a greater
-	 * depth than 1, which means that we'd need to do multiple passes over the
-	 * list.
+	 * Is called when all of the SVG XML file has been parsed. Gradients are
+	 * normally resolved as soon as they are first referenced, but references
+	 * to gradients defined later in the document, or to gradients that
+	 * inherit their stops from one defined later, can only be resolved once
+	 * everything has been parsed. Each gradient is resolved at most once, so
+	 * this is a single linear pass regardless of the number of defs blocks or
+	 * the depth of xlink:href chains.
 	 */
-	private void completeXLinks() {
-		// Process the gradients
-		Iterator<Gradient> gradientItr = gradientList.iterator();
-		Gradient gradient;
-		int idx;
-		while (gradientItr.hasNext()) {
-			gradient = gradientItr.next();
-			if (gradient.href != null) {
-				idx = this.getGradientByIdString(gradient.href.substring(1));
-				if (idx != -1) {
-					Gradient xlinkGrad = this.gradientList.get(idx);
-					gradient.stopColors = xlinkGrad.stopColors;
+	private void resolveGradients() {
+		for (Gradient gradient : gradientList) {
+			resolveGradient(gradient);
+		}
 
+		for (SvgStyle style : styleList) {
+			if (style.mFillGradientId != null) {
+				Gradient gradient = mGradientMap.get(style.mFillGradientId);
+				if (gradient != null && gradient.shader != null) {
+					style.fillPaint.setShader(gradient.shader);
+				} else if (mPatternMap.containsKey(style.mFillGradientId)) {
+					style.mFillPattern = mPatternMap.get(style.mFillGradientId);
+				} else if (gradient == null) {
+					warnUnresolvedReference(style.mFillGradientId);
 				}
-
-				// TODO: Can't we just insert an object reference to the same
-				// shader?
-
-				int[] colors = new int[gradient.stopColors.size()];
-				float[] offsets = new float[gradient.stopColors.size()];
-				for (int i = 0; i < colors.length; i++) {
-					colors[i] = gradient.stopColors.get(i).color;
-					offsets[i] = gradient.stopColors.get(i).offset;
+				style.mFillGradientId = null;
+			}
+			if (style.mStrokeGradientId != null) {
+				Gradient gradient = mGradientMap.get(style.mStrokeGradientId);
+				if (gradient != null && gradient.shader != null) {
+					style.strokePaint.setShader(gradient.shader);
+				} else if (gradient == null) {
+					warnUnresolvedReference(style.mStrokeGradientId);
 				}
+				style.mStrokeGradientId = null;
+			}
+		}
+	}
 
-				if (gradient.isRadial) {
-					gradient.shader = new RadialGradient(gradient.cx,
-							gradient.cy, gradient.radius, colors, offsets,
-							Shader.TileMode.CLAMP);
-				} else { // linear
-					gradient.shader = new LinearGradient(gradient.x1,
-							gradient.y1, gradient.x2, gradient.y2, colors,
-							offsets, Shader.TileMode.CLAMP);
-				}
+	/**
+	 * Ensure that the given gradient has its Shader. A gradient that has no
+	 * stops of its own takes them from the gradient its xlink:href refers to,
+	 * following the chain of references to any depth. Every gradient along
+	 * the chain is given the stops at the same time, so that no chain is
+	 * followed twice.
+	 * 
+	 * @return false if the gradient can't (yet) be resolved, because the
+	 *         chain ends in a gradient that hasn't been parsed, has no stops,
+	 *         or is circular.
+	 */
+	private boolean resolveGradient(Gradient gradient) {
+		if (gradient.shader != null) {
+			return true;
+		}
 
-				// The shader needs to have a matrix even if no transform was
-				// specified in the attributes
-				// for the gradient. This is because the gradient's Matrix, even
-				// if 'empty', is needed
-				// to concatenate the current cumulative transform to during
-				// evaluation/drawing.
-				if (gradient.matrix != null) {
-					gradient.shader.setLocalMatrix(gradient.matrix);
-				} else {
-					gradient.shader.setLocalMatrix(new Matrix());
-				}
+		Gradient source = gradient;
+		int depth = 0;
+		while (source.getStopCount() == 0) {
+			if (source.href == null || ++depth > gradientList.size()) {
+				return false;
 			}
+			source = mGradientMap.get(source.href.substring(1));
+			if (source == null) {
+				return false;
+			}
+		}
+
+		for (Gradient g = gradient; g != source; g = mGradientMap.get(g.href
+				.substring(1))) {
+			g.shareStops(source);
 		}
+
+		gradient.shader = obtainGradientShader(gradient);
+		return true;
 	}
 
-	private void finaliseLinearGradient() {
+	/**
+	 * Obtain a Shader for the gradient. Gradients that are structurally
+	 * identical -- same type, geometry, stops and transform -- share a single
+	 * Shader instance, which is common in files where a design tool has
+	 * emitted a separate gradient definition for every shape.
+	 */
+	private Shader obtainGradientShader(Gradient gradient) {
+		GradientShaderKey key = new GradientShaderKey(gradient);
+		Shader shader = mGradientShaderPool.get(key);
+		if (shader != null) {
+			mFoldedGradientCount++;
+		} else {
+			long gradientStart = startTiming();
+			shader = createGradientShader(gradient);
+			endTiming(SVGParseStats.STAGE_GRADIENT, gradientStart);
+			mGradientShaderPool.put(key, shader);
+			mShaderGradients.put(shader, gradient);
+			mGradientShaderCount++;
+		}
+		return shader;
+	}
 
-		// Only apply a shader now if this gradient element itself provided stop
-		// colours in its
-		// attributes. If it didn't, then hopefully it references another
-		// gradient's colours via a href
-		// attribute, in which case the cross-referencing will be done later.
+	/**
+	 * @return The number of distinct gradient Shaders created for the parsed
+	 *         document.
+	 */
+	public int getGradientShaderCount() {
+		return mGradientShaderCount;
+	}
 
-		if (currentGradient.stopColors.size() > 0) {
-			int[] ia = new int[currentGradient.stopColors.size()];
+	/**
+	 * @return The number of referenced gradients that were found to be
+	 *         identical to another and so share its Shader.
+	 */
+	public int getFoldedGradientCount() {
+		return mFoldedGradientCount;
+	}
 
-			for (int i = 0; i < ia.length; i++) {
-				ia[i] = currentGradient.stopColors.get(i).color;
-			}
+	private Shader createGradientShader(Gradient gradient) {
+		int[] colors = gradient.getStopColors();
+		float[] offsets = gradient.getStopOffsets();
+		// A gradient with a single stop is painted in that stop's colour, but
+		// Android's gradient shaders need at least two colours.
+		if (colors.length == 1) {
+			colors = new int[] { colors[0], colors[0] };
+			offsets = new float[] { 0, 1 };
+		}
 
-			currentGradient.shader = new LinearGradient(currentGradient.x1,
-					currentGradient.y1, currentGradient.x2, currentGradient.y2,
-					ia, null, Shader.TileMode.CLAMP);
-
-			// The shader needs to have a matrix even if no transform was
-			// specified in the attributes
-			// for the gradient. This is because the gradient's Matrix, even if
-			// 'empty', is needed
-			// to concatenate the current cumulative transform to during
-			// evaluation/drawing.
-			if (currentGradient.matrix != null) {
-				currentGradient.shader.setLocalMatrix(currentGradient.matrix);
-			} else {
-				currentGradient.shader.setLocalMatrix(new Matrix());
-			}
+		Shader shader;
+		if (gradient.isRadial) {
+			shader = new RadialGradient(gradient.cx, gradient.cy,
+					gradient.radius, colors, offsets, Shader.TileMode.CLAMP);
+		} else {
+			shader = new LinearGradient(gradient.x1, gradient.y1, gradient.x2,
+					gradient.y2, colors, offsets, Shader.TileMode.CLAMP);
+		}
 
+		// The shader needs to have a matrix even if no transform was specified
+		// in the attributes for the gradient. This is because the gradient's
+		// Matrix, even if 'empty', is needed to concatenate the current
+		// cumulative transform to during evaluation/drawing.
+		if (gradient.matrix != null) {
+			shader.setLocalMatrix(gradient.matrix);
+		} else {
+			shader.setLocalMatrix(new Matrix());
 		}
+		return shader;
+	}
 
+	private void finaliseLinearGradient() {
 		currentGradient.isRadial = false;
-		gradientList.add(currentGradient);
+		addGradient(currentGradient);
 		currentGradient = new Gradient();
-
 	}
 
 	private void finaliseRadialGradient() {
-
-		if (currentGradient.stopColors.size() > 0) {
-
-			int[] colors = new int[currentGradient.stopColors.size()];
-			float[] offsets = new float[currentGradient.stopColors.size()];
-			for (int i = 0; i < colors.length; i++) {
-				colors[i] = currentGradient.stopColors.get(i).color;
-				offsets[i] = currentGradient.stopColors.get(i).offset;
-			}
-
-			currentGradient.shader = new RadialGradient(currentGradient.cx,
-					currentGradient.cy, currentGradient.radius, colors,
-					offsets, Shader.TileMode.CLAMP);
-
-			// The shader needs to have a matrix even if no transform was
-			// specified in the attributes
-			// for the gradient. This is because the gradient's Matrix, even if
-			// 'empty', is needed
-			// to concatenate the current cumulative transform to during
-			// evaluation/drawing.
-			if (currentGradient.matrix != null) {
-				currentGradient.shader.setLocalMatrix(currentGradient.matrix);
-			} else {
-				currentGradient.shader.setLocalMatrix(new Matrix());
-			}
-		}
 		currentGradient.isRadial = true;
-		gradientList.add(currentGradient);
+		addGradient(currentGradient);
 		currentGradient = new Gradient();
 	}
 
-	private void gradientStop() {
-		gradientStyle();
+	/**
+	 * The gradient's Shader isn't created here but when the gradient is first
+	 * referenced, because it might take its stops from a gradient referenced
+	 * by xlink:href that hasn't been parsed yet.
+	 */
+	private void addGradient(Gradient gradient) {
+		if (mParseStats != null) {
+			mParseStats.addGradient();
+		}
+		gradientList.add(gradient);
+		if (gradient.id != null && gradient.id.length() > 0) {
+			mGradientMap.put(gradient.id, gradient);
+		}
 	}
 
-	/*
-	 * Search the gradientList for the Gradient with specified string ID. Index
-	 * into the gradientList is returned. If not found, -1 is returned.
+	/**
+	 * A stop's attributes, whether given directly or in its style attribute,
+	 * have already been parsed by parseAttributes().
 	 */
-	private int getGradientByIdString(String searchId) {
-		for (int idx = 0; idx < gradientList.size(); idx++) {
-			if (gradientList.get(idx).id.equals(searchId)) {
-				return idx;
-			}
+	private void gradientStop() {
+		if (mParsedAttributes.hasStopColor) {
+			int alpha = Math.round(Math.max(0,
+					Math.min(1, mParsedAttributes.stopOpacity)) * 255);
+			currentGradient.addStop((alpha << 24)
+					| (mParsedAttributes.stopColor & 0xffffff),
+					mParsedAttributes.stopOffset);
 		}
-		return -1;
 	}
 
 	private void svg() {
-		mRootSvgHeight = mParsedAttributes.height;
-		mRootSvgWidth = mParsedAttributes.width;
+		// Keep the default size if the document's can't be used, e.g. if it's
+		// a percentage, which has no viewport to be resolved against here.
+		if (mParsedAttributes.height > 0) {
+			mRootSvgHeight = mParsedAttributes.height;
+		}
+		if (mParsedAttributes.width > 0) {
+			mRootSvgWidth = mParsedAttributes.width;
+		}
 	}
 
 	private void rect() {
@@ -1141,6 +1681,7 @@ public class SVGParserRenderer extends DefaultHandler {
 		Textstring textString = new Textstring(mParsedAttributes.x,
 				mParsedAttributes.y, src, srcPos, length);
 		textString.mAnchorRight = mParsedAttributes.anchorRight;
+		textString.mId = mParsedAttributes.id;
 		textString.mSizeToFitTextLength = mParsedAttributes.textLengthAdjustSize;
 		textString.setTextLength((int) mParsedAttributes.textLength);
 		textstringList.add(textString);
@@ -1156,6 +1697,7 @@ public class SVGParserRenderer extends DefaultHandler {
 		Textstring textString = new Textstring(mParsedAttributes.x,
 				mParsedAttributes.y, src, srcPos, length);
 		textString.mAnchorRight = mParsedAttributes.anchorRight;
+		textString.mId = mParsedAttributes.id;
 		textString.mSizeToFitTextLength = mParsedAttributes.textLengthAdjustSize;
 		textString.setTextLength((int) mParsedAttributes.textLength);
 		textString.addVisibleOnRotations(mParsedAttributes.rotations);
@@ -1164,6 +1706,8 @@ public class SVGParserRenderer extends DefaultHandler {
 	}
 
 	private void path() {
+		long pathStart = startTiming();
+		int commandCount = 0;
 		float rx, ry, x_axis_rotation, x, y, x1, y1, x2, y2;
 		boolean firstElement = true, carry = false, large_arc_flag, sweep_flag;
 		PathTokenizer t = new PathTokenizer();
@@ -1192,6 +1736,7 @@ public class SVGParserRenderer extends DefaultHandler {
 		boolean pathIsEmpty = true;
 
 		do {
+			commandCount++;
 			if (t.currentTok == PathTokenizer.LTOK_LETTER) {
 				currentCommandLetter = t.tokenChar;
 				t.getToken(null);
@@ -1442,6 +1987,11 @@ public class SVGParserRenderer extends DefaultHandler {
 		} while (t.currentTok != PathTokenizer.LTOK_END);
 
 		setCustomPathAttributes(path);
+		path.setCommandCount(commandCount);
+		if (mParseStats != null) {
+			mParseStats.addPathCommands(commandCount);
+		}
+		endTiming(SVGParseStats.STAGE_PATH, pathStart);
 		addPath(path);
 	}
 
@@ -1472,7 +2022,7 @@ public class SVGParserRenderer extends DefaultHandler {
 	}
 
 	private Matrix transform() {
-
+		long transformStart = startTiming();
 		float f1, f2;
 		Matrix m = new Matrix();
 		ValueTokenizer t = new ValueTokenizer();
@@ -1545,95 +2095,19 @@ public class SVGParserRenderer extends DefaultHandler {
 			} while (t.currentTok != ValueTokenizer.LTOK_END);
 			mParsedAttributes.transformData = null;
 		}
+		endTiming(SVGParseStats.STAGE_TRANSFORM, transformStart);
 		return m;
 	}
 
-	private void gradientStyle() {
-		Map<String, String> map = new HashMap<String, String>();
-		parseAttributeValuePairsIntoMap(map);
-		String value;
-		int stopColour = 0;
-		float stopOffset = 0;
-		boolean haveStopColour = false;
-
-		if (mParsedAttributes.offset != null) {
-			stopOffset = parseAttrValueFloat(mParsedAttributes.offset);
-		}
-
-		if (null != (value = map.get("stop-opacity"))) {
-			float opacity = parseAttrValueFloat(value);
-			stopColour |= (((int) (opacity * 255)) << 24);
-			haveStopColour = true;
-		} else {
-			// TODO: If it's possible for gradients, inherit the opacity if it's
-			// not explicitly
-			// stated in the gradient's attributes.
-			stopColour = 0xff000000;
-		}
-
-		if (null != (value = map.get("stop-color"))) {
-			stopColour |= parseColour(value);
-			haveStopColour = true;
-		}
-
-		if (haveStopColour) {
-			currentGradient.stopColors.add(new Gradient.StopColor(stopColour,
-					stopOffset));
-		}
-	}
-
-	private void parseAttributeValuePairsIntoMap(Map<String, String> map) {
-		// Typical format is:
-		// font-size:40px;font-style:normal;font-variant:normal; ...
-		final Pattern keyValuePattern = Pattern
-				.compile("([\\w-#]+\\s*):(\\s*[\\w-#\\.\\(\\)\\s,]*)"); // basically
-																		// need
-																		// to
-																		// change
-																		// this
-																		// to
-																		// match
-																		// virtually
-																		// anything
-																		// on
-																		// each
-																		// side
-																		// of
-																		// the :
-																		// except
-																		// for a
-																		// few
-																		// symbols
-		Matcher keyValueMatcher = keyValuePattern
-				.matcher(mParsedAttributes.styleData);
-		while (keyValueMatcher.find()) {
-			map.put(keyValueMatcher.group(1), keyValueMatcher.group(2));
-		}
-	}
+	// Matches a key:value pair within a style attribute, e.g.
+	// font-size:40px;font-style:normal;font-variant:normal; ...
+	private static final Pattern STYLE_KEY_VALUE_PATTERN = Pattern
+			.compile("([\\w-#]+\\s*):(\\s*[\\w-#\\.\\(\\)\\s,]*)");
 
 	private int parseAttributeValuePairsIntoSaxAttributesImpl(
 			AttributesImpl attr) {
 		int quantityAdded = 0;
-		final Pattern keyValuePattern = Pattern
-				.compile("([\\w-#]+\\s*):(\\s*[\\w-#\\.\\(\\)\\s,]*)"); // basically
-																		// need
-																		// to
-																		// change
-																		// this
-																		// to
-																		// match
-																		// virtually
-																		// anything
-																		// on
-																		// each
-																		// side
-																		// of
-																		// the :
-																		// except
-																		// for a
-																		// few
-																		// symbols
-		Matcher keyValueMatcher = keyValuePattern
+		Matcher keyValueMatcher = STYLE_KEY_VALUE_PATTERN
 				.matcher(mParsedAttributes.styleData);
 		while (keyValueMatcher.find()) {
 			attr.addAttribute("", keyValueMatcher.group(1), "", "",
@@ -1655,81 +2129,160 @@ public class SVGParserRenderer extends DefaultHandler {
 	 * This method may be expanded later to handle some of the other basic SVG
 	 * data types that use a similar syntax, e.g. <angle>.
 	 * 
-	 * Limitations of this method: It's assumed for now that values will have
-	 * either no units specified and can be assumed 'px', or will otherwise have
-	 * 'px' unit identifier explicitly stated. Support for other units such as
-	 * pt, pc, etc. will be added later when deemed necessary. Either some
-	 * automatic translation could be done into the px space, or alternatively
-	 * investigate whether Android's vector graphics functions can be made to
-	 * accept units of different systems.
+	 * Values with no units, or px, are in user units. The absolute units are
+	 * converted to user units at 90 per inch, as SVG 1.1 does. Percentages are
+	 * resolved against percentOf. The font-relative units em and ex aren't
+	 * supported yet; a value in those, or in a unit that isn't known, is
+	 * reported and ignored, as is a percentage where there's nothing to resolve
+	 * it against.
 	 * 
-	 * For convenience, this method may or may not also handle the stripping of
-	 * quotation marks from the value string - this is TBD.
+	 * @param previous
+	 *            The value to keep if the length can't be used.
+	 * @param percentOf
+	 *            The length that percentages are of, or 0 if there isn't one.
 	 */
-	private static float parseCoOrdinate(String value) {
-		float result = 0f;
+	private float parseCoOrdinate(String value, float previous, float percentOf) {
+		if (value.length() == 0) {
+			warn(SVGDiagnostics.KIND_INVALID_NUMBER, "Empty length");
+			return previous;
+		}
 
 		// Quick and dirty way to determine if the value appears to have a units
 		// suffix.
-		if (value.charAt(value.length() - 1) >= 'a') {
-			if (value.endsWith("px")) {
-				value = value.substring(0, value.length() - 2);
+		int end = value.length();
+		while (end > 0
+				&& (value.charAt(end - 1) >= 'a' || value.charAt(end - 1) == '%')) {
+			end--;
+		}
+		float unitSize = 1;
+		if (end < value.length()) {
+			String unit = value.substring(end);
+			if (unit.equals("%")) {
+				if (percentOf <= 0) {
+					warn(SVGDiagnostics.KIND_UNSUPPORTED_UNIT, "Percentage "
+							+ value + " has nothing to be resolved against, ignored");
+					return previous;
+				}
+				unitSize = percentOf / 100;
 			} else {
-				// TODO: Add support in future for other units here.
-				// TODO: Call our error reporting function.
+				int index = 0;
+				while (index < ABSOLUTE_UNITS.length
+						&& !ABSOLUTE_UNITS[index].equals(unit)) {
+					index++;
+				}
+				if (index == ABSOLUTE_UNITS.length) {
+					warn(SVGDiagnostics.KIND_UNSUPPORTED_UNIT, "Unsupported unit in "
+							+ value + ", ignored");
+					return previous;
+				}
+				unitSize = ABSOLUTE_UNIT_SIZES[index];
 			}
+			value = value.substring(0, end);
 		}
 		try {
-			result = Float.parseFloat(value);
+			return Float.parseFloat(value) * unitSize;
 		} catch (NumberFormatException nfe) {
-
+			warn(SVGDiagnostics.KIND_INVALID_NUMBER, "Invalid length " + value);
+			return previous;
 		}
-		return result;
+	}
+
+	/**
+	 * @return The length that percentages of horizontal lengths are of: the
+	 *         width of the root &lt;svg&gt; element, or 0 while that element
+	 *         itself is being parsed.
+	 */
+	private float percentBaseX() {
+		return tagDepth > 0 ? mRootSvgWidth : 0;
+	}
+
+	/**
+	 * @return The length that percentages of vertical lengths are of. See
+	 *         percentBaseX().
+	 */
+	private float percentBaseY() {
+		return tagDepth > 0 ? mRootSvgHeight : 0;
+	}
+
+	/**
+	 * @return The length that percentages of other lengths, such as radii and
+	 *         stroke widths, are of. See percentBaseX().
+	 */
+	private float percentBaseDiagonal() {
+		return tagDepth > 0 ? (float) Math.sqrt((mRootSvgWidth * mRootSvgWidth
+				+ mRootSvgHeight * mRootSvgHeight) / 2) : 0;
 	}
 
 	/**
 	 * Parse a basic data type of type &lt;color&gt;. See SVG specification
 	 * section: http://www.w3.org/TR/SVG/types.html#BasicDataTypes.
-	 * 
-	 * TODO: This method needs error checking and reporting.
 	 */
 	private int parseColour(String value) {
 
 		int result = 0xffffff;
 
-		// Handle colour values that are in the format "rgb(r,g,b)"
+		// Handle colour values that are in the format "rgb(r,g,b)". The three
+		// components are scanned for directly, ignoring any other characters.
 		if (value.startsWith("rgb")) {
-			int r, g, b;
-			ValueTokenizer t = new ValueTokenizer();
-			t.getToken(value.substring(3));
-			if (t.currentTok == ValueTokenizer.LTOK_NUMBER) {
-				r = (int) t.tokenF;
-				t.getToken(null);
-				if (t.currentTok == ValueTokenizer.LTOK_NUMBER) {
-					g = (int) t.tokenF;
-					t.getToken(null);
-					if (t.currentTok == ValueTokenizer.LTOK_NUMBER) {
-						b = (int) t.tokenF;
-						result = (r << 16) + (g << 8) + b;
+			int rgb = 0;
+			int components = 0;
+			int i = 3;
+			int length = value.length();
+			while (components < 3 && i < length) {
+				char c = value.charAt(i);
+				if (c >= '0' && c <= '9') {
+					int component = 0;
+					while (i < length && (c = value.charAt(i)) >= '0'
+							&& c <= '9') {
+						component = component * 10 + (c - '0');
+						i++;
+					}
+					// Skip any fractional part.
+					while (i < length
+							&& ((c = value.charAt(i)) == '.' || (c >= '0' && c <= '9'))) {
+						i++;
 					}
+					rgb = (rgb << 8) | Math.min(component, 255);
+					components++;
+				} else {
+					i++;
 				}
 			}
+			if (components == 3) {
+				result = rgb;
+			} else {
+				warn(SVGDiagnostics.KIND_INVALID_COLOUR, "Invalid colour "
+						+ value);
+			}
 		}
 
-		// Handle colour values that are in the format #123abc. (Assume that's
-		// what it is,
-		// if the length is seven characters).
-		else if (value.length() == 7) {
+		// Handle colour values that are in the format #123abc, or the
+		// shorthand #1a3, in which each digit is repeated.
+		else if (value.startsWith("#")
+				&& (value.length() == 7 || value.length() == 4)) {
 			try {
-				result = Integer.parseInt(value.substring(1, 7), 16);
+				result = Integer.parseInt(value.substring(1), 16);
+				if (value.length() == 4) {
+					result = ((result & 0xf00) << 8 | (result & 0xf0) << 4 | (result & 0xf)) * 0x11;
+				}
 			} catch (NumberFormatException e) {
 				result = 0xff0000;
+				warn(SVGDiagnostics.KIND_INVALID_COLOUR, "Invalid colour "
+						+ value);
+			}
+		} else {
+			Integer keyword = ColourKeywords.get(value);
+			if (keyword != null) {
+				result = keyword;
+			} else {
+				warn(SVGDiagnostics.KIND_UNSUPPORTED_COLOUR,
+						"Unsupported colour " + value);
 			}
 		}
 		return result;
 	}
 
-	private float parseAttrValueFloat(String value) {
+	private static float parseAttrValueFloat(String value) {
 		float result;
 		try {
 			result = Float.parseFloat(value);
@@ -1911,7 +2464,7 @@ public class SVGParserRenderer extends DefaultHandler {
 	 * tokenF is 10, 20 and then 30.
 	 */
 
-	private class ValueTokenizer {
+	private static class ValueTokenizer {
 
 		/**
 		 * Matches a number with optional exponent. Not perfect as it'd ideally
@@ -1935,8 +2488,7 @@ public class SVGParserRenderer extends DefaultHandler {
 		private static final int LTOK_SPACE = 3;
 		private static final int LTOK_END = 4;
 
-		// TODO: Ensure that this Pattern only has to be compiled once.
-		private Pattern tokRegExp = Pattern.compile(REGEXP_TOKENS);
+		private static final Pattern tokRegExp = Pattern.compile(REGEXP_TOKENS);
 		private Matcher tokMatcher;
 
 		private float tokenF;
@@ -1995,7 +2547,7 @@ public class SVGParserRenderer extends DefaultHandler {
 	 * could extend ValueTokenizer.
 	 */
 
-	private class PathTokenizer {
+	private static class PathTokenizer {
 
 		private static final String REGEXP_NUMBER = "([-+]?[0-9]*[\\.]?[0-9]+([eE][-+]?[0-9]+)?)";
 		private static final String REGEXP_LETTER = "([a-zA-Z_])"; // Matches
@@ -2011,8 +2563,7 @@ public class SVGParserRenderer extends DefaultHandler {
 		private static final int LTOK_SPACE = 4;
 		private static final int LTOK_END = 5;
 
-		// TODO: Ensure that this Pattern only has to be compiled once.
-		private Pattern tokRegExp = Pattern.compile(REGEXP_TOKENS);
+		private static final Pattern tokRegExp = Pattern.compile(REGEXP_TOKENS);
 		private Matcher tokMatcher;
 
 		private float tokenF;
@@ -2089,16 +2640,66 @@ public class SVGParserRenderer extends DefaultHandler {
 		return Math.round(mRootSvgHeight);
 	}
 
+	// -------------------------------------------------------------------------------------
+	// Element handles
+
+	/**
+	 * Resolve the id of an animated element, one whose id has the special
+	 * animation prefix, to the handle used to set its state in an
+	 * SVGElementState. Ids are compared once here, rather than on every
+	 * frame.
+	 * 
+	 * @return The handle, or -1 if there is no animated element with the id.
+	 */
+	public int getElementHandle(String id) {
+		return idstringList.indexOf(id);
+	}
+
+	/**
+	 * @return The id of the animated element with the given handle.
+	 */
+	public String getElementId(int handle) {
+		return idstringList.get(handle);
+	}
+
+	/**
+	 * @return The number of animated elements, whose handles are 0 to one
+	 *         less than this.
+	 */
+	public int getElementHandleCount() {
+		return idstringList.size();
+	}
+
+	/**
+	 * Create an SVGElementState for this document's animated elements, with
+	 * none of them driven.
+	 */
+	public SVGElementState createElementState() {
+		return new SVGElementState(this, idstringList.size());
+	}
+
 	// -------------------------------------------------------------------------------------
 	// Code-sequence build functions
 
 	private void addPath(Path path) {
+		if (mParseStats != null) {
+			mParseStats.addPath();
+		}
+		if (path instanceof SVGPath) {
+			((SVGPath) path).setId(mParsedAttributes.id);
+		}
 		// This may well have a lot more arguments for stuff that's specific to
 		// the path
 		// i.e. contained within the <path.../> element but can't be expressed
 		// in the Path
 		// object, e.g. its ID.
-		addIdIfContainsSpecialPrefix();
+		boolean animated = addIdIfContainsSpecialPrefix();
+		if (mIsolatedArc != null) {
+			if (animated) {
+				mIsolatedArc.handle = idstringList.size() - 1;
+			}
+			mIsolatedArc = null;
+		}
 		// TODO: Should we be doing this check? What if the evaluator expects
 		// there to be a
 		// Style object?
@@ -2207,20 +2808,163 @@ public class SVGParserRenderer extends DefaultHandler {
 		// the ID
 		arcsList.add(arc);
 		addInstruction(INST_ARC);
+		mIsolatedArc = arc;
 	}
 
-	private void addIdIfContainsSpecialPrefix() {
+	/**
+	 * @return true if the element is animated, so its id was added.
+	 */
+	private boolean addIdIfContainsSpecialPrefix() {
 		if (mParsedAttributes.id.toLowerCase().startsWith(
 				SPECIAL_ID_PREFIX_ANIM)) {
 			idstringList.add(mParsedAttributes.id);
 			addInstruction(INST_IDSTRING);
+			return true;
 		}
+		return false;
 	}
 
 	private void addInstruction(byte inst) {
 		bytecodeList.add(inst);
 	}
 
+	// ------------------------------------------------------------------------------
+	// Compile passes, performed once the bytecode is complete
+
+	/**
+	 * Find sequences of consecutive static text items (text that has no
+	 * animation ID, special anchoring, text length fitting or rotation
+	 * visibility) that have the same style, and whose transforms differ only in
+	 * translation, and merge each such sequence into a single TextRun. Only
+	 * style and matrix instructions may come between the items of a run, so a
+	 * run never spans a group, pattern or any other element.
+	 */
+	private void coalesceTextRuns() {
+		int styleIdx = -1;
+		int matrixIdx = -1;
+		int textIdx = -1;
+		boolean animated = false;
+		Textstring runHead = null;
+		SvgStyle runStyle = null;
+		Matrix runMatrix = null;
+		Matrix runInverse = new Matrix();
+		float[] point = new float[2];
+
+		for (int i = 0; i < bytecodeArr.length; i++) {
+			switch (bytecodeArr[i]) {
+			case INST_STYLE:
+				styleIdx++;
+				break;
+			case INST_MATRIX:
+				matrixIdx++;
+				break;
+			case INST_IDSTRING:
+				// As in the evaluator, the ID applies to whichever path or text
+				// comes next.
+				animated = true;
+				runHead = null;
+				break;
+			case INST_PATH:
+				animated = false;
+				runHead = null;
+				break;
+			case INST_TEXTSTRING:
+				textIdx++;
+				Textstring ts = textstringList.get(textIdx);
+				SvgStyle style = styleIdx >= 0 ? styleList.get(styleIdx) : null;
+				Matrix matrix = matrixIdx >= 0 ? matrixList.get(matrixIdx) : null;
+				if (animated || style == null || matrix == null
+						|| !isStaticText(ts, style)) {
+					animated = false;
+					runHead = null;
+					break;
+				}
+				if (runHead != null && sameTextStyle(runStyle, style)
+						&& sameLinearTransform(runMatrix, matrix)) {
+					if (runHead.mTextRun == null) {
+						runHead.mTextRun = new TextRun();
+						runHead.mTextRunHead = true;
+						if (mParseStats != null) {
+							mParseStats.addTextRun();
+						}
+						addToTextRun(runHead.mTextRun, runHead, runStyle,
+								runMatrix, runInverse, point);
+					}
+					ts.mTextRun = runHead.mTextRun;
+					addToTextRun(ts.mTextRun, ts, style, matrix, runInverse,
+							point);
+				} else {
+					runHead = ts;
+					runStyle = style;
+					runMatrix = matrix;
+					matrix.invert(runInverse);
+				}
+				break;
+			default:
+				runHead = null;
+				break;
+			}
+		}
+	}
+
+	private static boolean isStaticText(Textstring ts, SvgStyle style) {
+		return !ts.mAnchorRight && !ts.mSizeToFitTextLength
+				&& ts.mVisibleOnRotations == null && ts.string.length() > 0
+				&& (style.hasFill || style.hasStroke)
+				&& style.mFillPattern == null;
+	}
+
+	private static void addToTextRun(TextRun run, Textstring ts,
+			SvgStyle style, Matrix matrix, Matrix runInverse, float[] point) {
+		Paint paint = style.hasFill ? style.fillPaint : style.strokePaint;
+		TextLayout layout = ts.getLayout(paint, !style.hasFill);
+		float x = ts.x;
+		if (paint.getTextAlign() == Paint.Align.CENTER) {
+			x -= layout.getAdvance() / 2;
+		} else if (paint.getTextAlign() == Paint.Align.RIGHT) {
+			x -= layout.getAdvance();
+		}
+		// Map the item's origin into the coordinate space of the run's first
+		// item. The transforms only differ by translation, so advances
+		// are the same in both spaces.
+		point[0] = x;
+		point[1] = ts.y;
+		matrix.mapPoints(point);
+		runInverse.mapPoints(point);
+		run.add(ts.string, layout.getAdvances(), ts.string.length(),
+				point[0], point[1]);
+	}
+
+	private static boolean sameTextStyle(SvgStyle a, SvgStyle b) {
+		return a.hasFill == b.hasFill && a.hasStroke == b.hasStroke
+				&& (!a.hasFill || sameTextPaint(a.fillPaint, b.fillPaint))
+				&& (!a.hasStroke || sameTextPaint(a.strokePaint, b.strokePaint));
+	}
+
+	private static boolean sameTextPaint(Paint a, Paint b) {
+		return a.getColor() == b.getColor()
+				&& a.getTextSize() == b.getTextSize()
+				&& a.getTextScaleX() == b.getTextScaleX()
+				&& a.getTypeface() == b.getTypeface()
+				&& a.getTextAlign() == b.getTextAlign()
+				&& a.getShader() == b.getShader()
+				&& a.getStrokeWidth() == b.getStrokeWidth()
+				&& a.isAntiAlias() == b.isAntiAlias();
+	}
+
+	private static boolean sameLinearTransform(Matrix a, Matrix b) {
+		float[] va = new float[9];
+		float[] vb = new float[9];
+		a.getValues(va);
+		b.getValues(vb);
+		return va[Matrix.MSCALE_X] == vb[Matrix.MSCALE_X]
+				&& va[Matrix.MSKEW_X] == vb[Matrix.MSKEW_X]
+				&& va[Matrix.MSKEW_Y] == vb[Matrix.MSKEW_Y]
+				&& va[Matrix.MSCALE_Y] == vb[Matrix.MSCALE_Y]
+				&& va[Matrix.MPERSP_0] == 0 && va[Matrix.MPERSP_1] == 0
+				&& vb[Matrix.MPERSP_0] == 0 && vb[Matrix.MPERSP_1] == 0;
+	}
+
 	// ------------------------------------------------------------------------------
 	// Associated with user's handler
 
@@ -2231,20 +2975,6 @@ public class SVGParserRenderer extends DefaultHandler {
 
 	// ------------------------------------------------------------------------------
 
-	// Used by code evaluator:
-	Iterator<Matrix> matrixListIterator;
-	Iterator<Path> pathListIterator;
-	Iterator<SvgStyle> styleListIterator;
-	Iterator<Textstring> textstringListIterator;
-	Iterator<String> idstringListIterator;
-	Iterator<Arc> arcsListIterator;
-
-	Paint currentFillPaint = new Paint();
-	Paint currentStrokePaint = new Paint();
-	Matrix workingMatrix = new Matrix();
-
-	float[] matrixValues = new float[9];
-
 	public void paintImage(Canvas canvas, String subtreeId, int containerWidth,
 			int containerHeight, ITpsvgController animHandler) {
 		paintImage(canvas, subtreeId, containerWidth, containerHeight,
@@ -2257,9 +2987,21 @@ public class SVGParserRenderer extends DefaultHandler {
 				animHandler, fill, 0);
 	}
 
-	public void paintImage(Canvas canvas, String subtreeId, int containerWidth,
-			int containerHeight, ITpsvgController animHandler, boolean fill,
-			int rotation) {
+	public synchronized void paintImage(Canvas canvas, String subtreeId,
+			int containerWidth, int containerHeight,
+			ITpsvgController animHandler, boolean fill, int rotation) {
+		SVGAndroidCanvas wrapper = obtainCanvasWrapper(canvas);
+		try {
+			paintImage(wrapper, subtreeId, containerWidth, containerHeight,
+					animHandler, fill, rotation);
+		} finally {
+			releaseCanvasWrapper(wrapper);
+		}
+	}
+
+	public void paintImage(ITpsvgCanvas canvas, String subtreeId,
+			int containerWidth, int containerHeight,
+			ITpsvgController animHandler, boolean fill, int rotation) {
 		float uniformScaleFactor;
 		canvas.save();
 
@@ -2286,16 +3028,16 @@ public class SVGParserRenderer extends DefaultHandler {
 
 		switch (rotation) {
 		case 90:
-			canvas.rotate(90, 0, 0);
+			canvas.rotate(90);
 			canvas.translate(0, -mRootSvgHeight - remainderHeight);
 			break;
 		case 180:
-			canvas.rotate(180, 0, 0);
+			canvas.rotate(180);
 			canvas.translate(-mRootSvgWidth - remainderWidth, -mRootSvgHeight
 					- remainderHeight);
 			break;
 		case 270:
-			canvas.rotate(270, 0, 0);
+			canvas.rotate(270);
 			canvas.translate(-mRootSvgWidth - remainderWidth, 0);
 			break;
 		default:
@@ -2319,6 +3061,12 @@ public class SVGParserRenderer extends DefaultHandler {
 	 * applied to shapes and paths, which is a special attribute provided by
 	 * this library and is not part of the SVG standard.
 	 * 
+	 * The paintImage() methods are synchronized: a document is drawn by one
+	 * thread at a time, because the evaluator's scratch state and the style
+	 * paints are held by the document and shared between calls. Threads that
+	 * draw the same document wait for each other, so to draw a document on
+	 * several threads at once, parse a copy of it for each thread.
+	 * 
 	 * @param canvas
 	 *            The canvas on which to make the drawing calls.
 	 * @param subtreeId
@@ -2349,30 +3097,133 @@ public class SVGParserRenderer extends DefaultHandler {
 	public synchronized void paintImage(Canvas canvas, String subtreeId,
 			float remainderWidth, float remainderHeight, int rotation,
 			ITpsvgController animHandler, boolean isDrawingPatternTile) {
+		SVGAndroidCanvas wrapper = obtainCanvasWrapper(canvas);
+		try {
+			paintImage(wrapper, subtreeId, remainderWidth, remainderHeight,
+					rotation, animHandler, isDrawingPatternTile);
+		} finally {
+			releaseCanvasWrapper(wrapper);
+		}
+	}
+
+	/**
+	 * Obtain an ITpsvgCanvas for drawing to the given Canvas. The same wrapper
+	 * is reused from one frame to the next; a call made while it's in use,
+	 * which happens when a pattern tile is rendered, is given a new one.
+	 */
+	private SVGAndroidCanvas obtainCanvasWrapper(Canvas canvas) {
+		if (mCanvasWrapperInUse) {
+			return new SVGAndroidCanvas(canvas);
+		}
+		mCanvasWrapperInUse = true;
+		mCanvasWrapper.setCanvas(canvas);
+		return mCanvasWrapper;
+	}
+
+	private void releaseCanvasWrapper(SVGAndroidCanvas wrapper) {
+		if (wrapper == mCanvasWrapper) {
+			mCanvasWrapper.setCanvas(null);
+			mCanvasWrapperInUse = false;
+		}
+	}
+
+	/**
+	 * Render the SVG image to the supplied ITpsvgCanvas, which may draw to an
+	 * Android Canvas or record the drawing operations. See
+	 * paintImage(Canvas, String, float, float, int, ITpsvgController,
+	 * boolean).
+	 */
+	public synchronized void paintImage(ITpsvgCanvas canvas, String subtreeId,
+			float remainderWidth, float remainderHeight, int rotation,
+			ITpsvgController animHandler, boolean isDrawingPatternTile) {
+
+		// This method is re-entrant, as it is called recursively to draw a
+		// pattern tile when a pattern is first used. The scratch objects used
+		// while evaluating are reused from one frame to the next by the
+		// outermost call, and allocated afresh for recursive calls.
+		EvaluatorState state = mEvaluatorDepth == 0 ? mEvaluatorState
+				: new EvaluatorState();
+		mEvaluatorDepth++;
+		try {
+			evaluate(canvas, subtreeId, remainderWidth, remainderHeight,
+					rotation, animHandler, isDrawingPatternTile, state);
+		} finally {
+			mEvaluatorDepth--;
+		}
+	}
+
+	/**
+	 * Scratch objects used by the evaluator, so that drawing a frame doesn't
+	 * allocate.
+	 */
+	private static class EvaluatorState {
+		final SVGPath workingPath = new SVGPath();
+		final SVGPath carryPath = new SVGPath();
+		final Matrix identityMatrix = new Matrix();
+		final Matrix animMatrix = new Matrix();
+		final Matrix shaderMatrix = new Matrix();
+		final Matrix scratchMatrix = new Matrix();
+		final Matrix canvasMatrix = new Matrix();
+		final float[] matrixValues = new float[9];
+		final float[] points = new float[2];
+		final float[] values = new float[9];
+		final RectF bounds = new RectF();
+	}
+
+	private void evaluate(ITpsvgCanvas canvas, String subtreeId,
+			float remainderWidth, float remainderHeight, int rotation,
+			ITpsvgController animHandler, boolean isDrawingPatternTile,
+			EvaluatorState state) {
 
-		Canvas mCanvas = canvas;
-		SVGPath workingPath = new SVGPath();
-		Path carryPath = new SVGPath();
+		ITpsvgCanvas mCanvas = canvas;
+		SVGPath workingPath = state.workingPath;
+		Path carryPath = state.carryPath;
+		carryPath.rewind();
 		int gDepth = 1;
 		boolean mSkipPattern = false;
 
-		codePtr = 0;
-		// TBD: I think that previous Matrix is remaining attached to something,
-		// so have to instance
-		// a new one each time
-		// currentMatrix.reset();
-		workingMatrix = new Matrix();
-		matrixListIterator = matrixList.listIterator();
-		pathListIterator = pathList.listIterator();
-		styleListIterator = styleList.listIterator();
-		textstringListIterator = textstringList.listIterator();
-		idstringListIterator = idstringList.listIterator();
-		arcsListIterator = arcsList.iterator();
+		int codePtr = 0;
+		Matrix workingMatrix = state.identityMatrix;
+		int matrixIndex = 0;
+		int pathIndex = 0;
+		int styleIndex = 0;
+		int textstringIndex = 0;
+		int idstringIndex = 0;
+		int arcIndex = 0;
+		SvgStyle currentStyle = null;
+		Paint currentFillPaint = null;
+		Paint currentStrokePaint = null;
+		float[] matrixValues = state.matrixValues;
 		boolean doSpecialIdCallbackForNextElement = false;
 		int animIteration;
 		String animId;
-		Matrix animMatrix = new Matrix();
-		Matrix shaderMatrix = new Matrix();
+		Matrix animMatrix = state.animMatrix;
+		Matrix shaderMatrix = state.shaderMatrix;
+
+		SVGElementState elementState = null;
+		if (animHandler instanceof ITpsvgStateController) {
+			elementState = ((ITpsvgStateController) animHandler)
+					.getElementState();
+			if (elementState != null && elementState.getImage() != this) {
+				throw new IllegalArgumentException(
+						"Element state belongs to a different document");
+			}
+		}
+		int elementHandle;
+		int elementFlags;
+		// An arc whose angles are set by the element state, to be drawn by
+		// the path instruction that follows.
+		Arc pendingArc = null;
+
+		// Pattern tiles are rendered while drawing the path that uses them, so
+		// their time is included in that path's rather than profiled separately.
+		SVGRenderProfile profile = mRenderProfilingEnabled
+				&& !isDrawingPatternTile ? new SVGRenderProfile() : null;
+		long paintStart = profile != null ? System.nanoTime() : 0;
+		long opStart = 0;
+		String profileElement = null;
+		int pathCount = 0;
+		int textCount = 0;
 
 		if (subtreeId != null) {
 			// TODO: It would be better if the GroupJumpTo object did all of
@@ -2383,33 +3234,25 @@ public class SVGParserRenderer extends DefaultHandler {
 			if (subtreeJumpMap.containsKey(subtreeId)) {
 				GroupJumpTo jumpTo = subtreeJumpMap.get(subtreeId);
 				codePtr = jumpTo.bytecodePosition;// -1;
-				matrixListIterator = matrixList
-						.listIterator(jumpTo.matrixListPosition);
-				pathListIterator = pathList
-						.listIterator(jumpTo.pathListPosition);
-				styleListIterator = styleList
-						.listIterator(jumpTo.styleListPosition);
-				textstringListIterator = textstringList
-						.listIterator(jumpTo.textstringListPosition);
-				idstringListIterator = idstringList
-						.listIterator(jumpTo.idstringListPosition);
-				arcsListIterator = arcsList
-						.listIterator(jumpTo.arcsListPosition);
+				matrixIndex = jumpTo.matrixListPosition;
+				pathIndex = jumpTo.pathListPosition;
+				styleIndex = jumpTo.styleListPosition;
+				textstringIndex = jumpTo.textstringListPosition;
+				idstringIndex = jumpTo.idstringListPosition;
+				arcIndex = jumpTo.arcsListPosition;
 			}
 		}
 
-		// WARNING - currentFillPaint and currentStrokePaint make references to
-		// things such as
-		// Gradients and their associated shaders.
-		// Paint currentFillPaint = new Paint();
-		// Paint currentStrokePaint = new Paint();
-		// Matrix currentMatrix = new Matrix();
-		// SvgStyle currentStyle = null;
-
 		if (bytecodeArr == null) {
 			return;
 		}
 
+		// The scale from document units to device pixels, used for choosing
+		// the resolution of pattern tiles.
+		Matrix canvasMatrix = state.canvasMatrix;
+		mCanvas.getMatrix(canvasMatrix);
+		float deviceScale = canvasMatrix.mapRadius(1);
+
 		if (animHandler != null) {
 			animHandler.setRemainderWidthOrHeight(remainderWidth,
 					remainderHeight);
@@ -2417,16 +3260,58 @@ public class SVGParserRenderer extends DefaultHandler {
 
 		while (bytecodeArr[codePtr] != INST_END && gDepth > 0) {
 
+			if (profile != null) {
+				opStart = System.nanoTime();
+				profileElement = null;
+			}
+
 			switch (bytecodeArr[codePtr]) {
 
 			case INST_PATH:
+				SVGPath sourcePath = (SVGPath) pathList.get(pathIndex++);
+				if (profile != null) {
+					profileElement = elementName(sourcePath.getId(), "path",
+							pathCount);
+				}
+				pathCount++;
+				// A path that isn't animated or anchored is always drawn with
+				// the same transform and paint.
+				boolean staticPath = !doSpecialIdCallbackForNextElement
+						&& !sourcePath.usesRemainderWidthOrHeight();
+
+				// An arc set by the element state is drawn directly with
+				// drawArc() where its transform allows, rather than being
+				// built into the working path.
+				Arc directArc = null;
+				float arcStart = 0;
+				float arcSweep = 0;
+				if (pendingArc != null) {
+					int arcFlags = elementState.mFlags[pendingArc.handle];
+					arcStart = pendingArc.angleStart;
+					if ((arcFlags & SVGElementState.FLAG_ARC_START) != 0) {
+						arcStart = elementState.mArcStarts[pendingArc.handle];
+					}
+					arcSweep = elementState.mArcSweeps[pendingArc.handle];
+					if ((arcFlags & SVGElementState.FLAG_TRANSFORM) == 0
+							&& !sourcePath.usesRemainderWidthOrHeight()
+							&& pendingArc.mapBounds(workingMatrix, state.values)) {
+						directArc = pendingArc;
+					} else {
+						carryPath.addArc(pendingArc.bounds, arcStart, arcSweep);
+					}
+					pendingArc = null;
+				}
+
 				workingPath.rewind();
-				workingPath.addPath(pathListIterator.next());
-				workingPath.addPath(carryPath);
-				workingPath.transform(workingMatrix);
+				if (directArc == null) {
+					workingPath.addPath(sourcePath);
+					workingPath.addPath(carryPath);
+					workingPath.transform(workingMatrix);
+				}
 				carryPath.rewind();
+				SVGPath visibilityPath = directArc == null ? workingPath
+						: sourcePath;
 
-				// p = pathListIterator.next();
 				// If we assume a Matrix is included for every path, even if
 				// it's an empty matrix,
 				// then we always pop the matrix on path creation. On the
@@ -2443,6 +3328,8 @@ public class SVGParserRenderer extends DefaultHandler {
 
 				animId = null;
 				animIteration = 0;
+				elementHandle = -1;
+				elementFlags = 0;
 
 				animMatrix.reset();
 
@@ -2454,7 +3341,7 @@ public class SVGParserRenderer extends DefaultHandler {
 						animMatrix.postTranslate(0, remainderHeight);
 					}
 					if (workingPath.getStretchToRemainderWidth()) {
-						RectF bounds = new RectF();
+						RectF bounds = state.bounds;
 						workingPath.computeBounds(bounds, false);
 						animMatrix.postScale(
 								(bounds.right - bounds.left + remainderWidth)
@@ -2462,7 +3349,7 @@ public class SVGParserRenderer extends DefaultHandler {
 								bounds.left, 0);
 					}
 					if (workingPath.getStretchToRemainderHeight()) {
-						RectF bounds = new RectF();
+						RectF bounds = state.bounds;
 						workingPath.computeBounds(bounds, false);
 						animMatrix.postScale(1,
 								(bounds.bottom - bounds.top + remainderHeight)
@@ -2472,20 +3359,52 @@ public class SVGParserRenderer extends DefaultHandler {
 					workingPath.transform(animMatrix);
 				}
 
+				if (doSpecialIdCallbackForNextElement && elementState != null
+						&& elementState.isDriven(idstringIndex)) {
+					// Driven by the element state rather than the callback.
+					elementHandle = idstringIndex++;
+					elementFlags = elementState.mFlags[elementHandle];
+					if (elementState.getTransform(elementHandle, animMatrix,
+							matrixValues)) {
+						workingPath.transform(animMatrix);
+					}
+					doSpecialIdCallbackForNextElement = false;
+					if ((elementFlags & SVGElementState.FLAG_HIDDEN) != 0) {
+						break;
+					}
+				}
+
+				// Copies of a replicated path are drawn by transforming the
+				// Canvas, so the path itself is left as it is.
+				int instanceCount = 1;
+				int instance = 0;
+				if ((elementFlags & SVGElementState.FLAG_INSTANCES) != 0) {
+					instanceCount = elementState.mInstanceCounts[elementHandle];
+					if (instanceCount == 0) {
+						break;
+					}
+				}
+
 				do {
 
 					if (doSpecialIdCallbackForNextElement == true) {
 						if (animId == null) {
-							animId = idstringListIterator.next();
+							animId = idstringList.get(idstringIndex++);
 						}
 						if (animHandler != null) {
 							animMatrix.reset();
 
+							long callbackStart = profile != null ? System
+									.nanoTime() : 0;
 							doSpecialIdCallbackForNextElement = animHandler
 									.animElement(animId, animIteration++,
 											workingPath, animMatrix,
 											currentStrokePaint,
 											currentFillPaint);
+							if (profile != null) {
+								profile.addCallback(System.nanoTime()
+										- callbackStart);
+							}
 							workingPath.transform(animMatrix);
 
 						} else {
@@ -2493,93 +3412,143 @@ public class SVGParserRenderer extends DefaultHandler {
 						}
 					}
 
-					shaderMatrix = null;
-					if (currentFillPaint != null) {
+					boolean overrideFill = false;
+					boolean overrideStroke = false;
+					int fillColor = 0;
+					int strokeColor = 0;
+					if ((elementFlags & SVGElementState.FLAG_FILL_COLOR) != 0) {
+						overrideFill = true;
+						fillColor = elementState.mFillColors[elementHandle];
+					}
+					if ((elementFlags & SVGElementState.FLAG_STROKE_COLOR) != 0) {
+						overrideStroke = true;
+						strokeColor = elementState.mStrokeColors[elementHandle];
+					}
+					if ((elementFlags & SVGElementState.FLAG_INSTANCES) != 0) {
+						elementState.getInstanceTransform(elementHandle,
+								instance, state.scratchMatrix, state.values);
+						mCanvas.save();
+						mCanvas.concat(state.scratchMatrix);
+						if (elementState.hasInstanceColors(elementHandle)) {
+							overrideFill = overrideStroke = true;
+							fillColor = strokeColor = elementState
+									.getInstanceColor(elementHandle, instance);
+						}
+					}
 
-						Matrix copyShaderMatrix = null;
+					if (currentFillPaint != null
+							&& currentStyle.mFillPattern != null && !mSkipPattern) {
+						updatePatternShader(currentStyle, deviceScale
+								* workingMatrix.mapRadius(1));
+					}
+
+					if (currentFillPaint != null) {
+						Paint fillPaint = currentFillPaint;
+						Shader sharedShader = null;
 						if (currentFillPaint.getShader() != null) {
-							shaderMatrix = new Matrix();
-							currentFillPaint.getShader().getLocalMatrix(
-									shaderMatrix);
-							copyShaderMatrix = new Matrix(shaderMatrix); // Deep
-																			// copy.
-							copyShaderMatrix.postConcat(workingMatrix);
-							copyShaderMatrix.postConcat(animMatrix);
-							currentFillPaint.getShader().setLocalMatrix(
-									copyShaderMatrix);
+							fillPaint = preparePaint(
+									sourcePath.getPreparedFillPaint(),
+									currentFillPaint, workingMatrix,
+									animMatrix, staticPath);
+							if (fillPaint == null) {
+								fillPaint = currentFillPaint;
+								sharedShader = transformSharedShader(
+										currentFillPaint, workingMatrix,
+										animMatrix, shaderMatrix,
+										state.scratchMatrix);
+							}
+						}
+						int storedFillColor = fillPaint.getColor();
+						if (overrideFill) {
+							fillPaint.setColor(fillColor);
+						}
+						if ((elementFlags & SVGElementState.FLAG_ALPHA) != 0) {
+							applyAlpha(fillPaint,
+									elementState.mAlphas[elementHandle]);
 						}
 						if (!mSkipPattern
-								&& workingPath.getVisibleOnRotation(rotation)) {
-							mCanvas.drawPath(workingPath, currentFillPaint);
+								&& visibilityPath.getVisibleOnRotation(rotation)) {
+							if (directArc != null) {
+								mCanvas.drawArc(directArc.mappedBounds,
+										arcStart, arcSweep, false, fillPaint);
+							} else {
+								mCanvas.drawPath(workingPath, fillPaint);
+							}
+							if (profile != null) {
+								profile.addDrawCall();
+							}
 						}
-						if (shaderMatrix != null) {
-							currentFillPaint.getShader().setLocalMatrix(
-									shaderMatrix); // Restore shader's
-													// original
-													// Matrix
+						fillPaint.setColor(storedFillColor);
+						if (sharedShader != null) {
+							// Restore shader's original Matrix
+							sharedShader.setLocalMatrix(shaderMatrix);
 						}
 					}
 
 					if (currentStrokePaint != null) {
+						Paint strokePaint = currentStrokePaint;
+						Shader sharedShader = null;
+						if (currentStrokePaint.getShader() != null) {
+							strokePaint = preparePaint(
+									sourcePath.getPreparedStrokePaint(),
+									currentStrokePaint, workingMatrix,
+									animMatrix, staticPath);
+							if (strokePaint == null) {
+								strokePaint = currentStrokePaint;
+								sharedShader = transformSharedShader(
+										currentStrokePaint, workingMatrix,
+										animMatrix, shaderMatrix,
+										state.scratchMatrix);
+							}
+						}
 
 						workingMatrix.getValues(matrixValues);
-						float storedStrokeWidth = currentStrokePaint
-								.getStrokeWidth();
-						currentStrokePaint
+						float storedStrokeWidth = strokePaint.getStrokeWidth();
+						int storedStrokeColor = strokePaint.getColor();
+						if (overrideStroke) {
+							strokePaint.setColor(strokeColor);
+						}
+						if ((elementFlags & SVGElementState.FLAG_ALPHA) != 0) {
+							applyAlpha(strokePaint,
+									elementState.mAlphas[elementHandle]);
+						}
+						strokePaint
 								.setStrokeWidth(storedStrokeWidth
 										* (Math.abs(matrixValues[Matrix.MSCALE_Y]) + Math
 												.abs(matrixValues[Matrix.MSCALE_X]) / 2));
-						// Paint scaledPaint = new
-						// Paint(currentStrokePaint);
-						// scaledPaint.setStrokeWidth(scaledPaint.getStrokeWidth()
-						// * ( ( Math.abs(matrixValues[Matrix.MSCALE_Y]) +
-						// Math.abs(matrixValues[Matrix.MSCALE_X]) ) / 2 )
-						// );
-
-						// //float curStrkWidth =
-						// scaledPaint.getStrokeWidth();
-						// //float newStrkWidth = (
-						// Math.abs(f[Matrix.MSCALE_Y])
-						// + Math.abs(f[Matrix.MSCALE_X]) ) / 2.0f ;
-						// //newStrkWidth = curStrkWidth * newStrkWidth;
-						// //scaledPaint.setStrokeWidth(newStrkWidth);
-
-						Matrix copyShaderMatrix = null;
-
-						// TODO: Does this block now go after the
-						// mCanvas.drawPath?
-						if (currentStrokePaint.getShader() != null) {
-							shaderMatrix = new Matrix();
-							currentStrokePaint.getShader().getLocalMatrix(
-									shaderMatrix);
-							copyShaderMatrix = new Matrix(shaderMatrix); // Deep
-																			// copy.
-							copyShaderMatrix.postConcat(workingMatrix);
-							copyShaderMatrix.postConcat(animMatrix);
-							currentStrokePaint.getShader().setLocalMatrix(
-									copyShaderMatrix);
-						}
 
 						if (!mSkipPattern
-								&& workingPath.getVisibleOnRotation(rotation)) {
-							mCanvas.drawPath(workingPath, currentStrokePaint);
+								&& visibilityPath.getVisibleOnRotation(rotation)) {
+							if (directArc != null) {
+								mCanvas.drawArc(directArc.mappedBounds,
+										arcStart, arcSweep, false, strokePaint);
+							} else {
+								mCanvas.drawPath(workingPath, strokePaint);
+							}
+							if (profile != null) {
+								profile.addDrawCall();
+							}
 						}
 
-						if (shaderMatrix != null) {
-							currentStrokePaint.getShader().setLocalMatrix(
-									shaderMatrix); // Restore shader's
-													// original
-													// Matrix
+						if (sharedShader != null) {
+							// Restore shader's original Matrix
+							sharedShader.setLocalMatrix(shaderMatrix);
 						}
 
-						currentStrokePaint.setStrokeWidth(storedStrokeWidth);
+						strokePaint.setStrokeWidth(storedStrokeWidth);
+						strokePaint.setColor(storedStrokeColor);
 					}
 
-				} while (doSpecialIdCallbackForNextElement == true);
+					if ((elementFlags & SVGElementState.FLAG_INSTANCES) != 0) {
+						mCanvas.restore();
+					}
+
+				} while (doSpecialIdCallbackForNextElement == true
+						|| ++instance < instanceCount);
 				break;
 
 			case INST_MATRIX:
-				workingMatrix = matrixListIterator.next();
+				workingMatrix = matrixList.get(matrixIndex++);
 				break;
 
 			case INST_BEGINGROUP:
@@ -2623,7 +3592,7 @@ public class SVGParserRenderer extends DefaultHandler {
 				break;
 
 			case INST_STYLE:
-				SvgStyle currentStyle = styleListIterator.next();
+				currentStyle = styleList.get(styleIndex++);
 				if (currentStyle.hasStroke) {
 					// IMPORTANT: Making copy as opposed to a reference.
 					// This
@@ -2647,15 +3616,41 @@ public class SVGParserRenderer extends DefaultHandler {
 				break;
 
 			case INST_TEXTSTRING:
-				Textstring ts = textstringListIterator.next();
+				Textstring ts = textstringList.get(textstringIndex++);
+				if (profile != null) {
+					profileElement = elementName(ts.mId, "text", textCount);
+				}
+				textCount++;
 				if (!ts.getVisibleOnRotation(rotation)) {
 					// Discard the ID
 					if (doSpecialIdCallbackForNextElement == true) {
-						idstringListIterator.next();
+						idstringIndex++;
 						doSpecialIdCallbackForNextElement = false;
 					}
 					break;
 				}
+				if (ts.mTextRun != null && ts.mTextRun.isValid()) {
+					// Static text merged into a glyph run, which is drawn in
+					// its entirety when its first item is reached.
+					if (ts.mTextRunHead && !mSkipPattern) {
+						mCanvas.save();
+						mCanvas.concat(workingMatrix);
+						if (currentStrokePaint != null) {
+							ts.mTextRun.draw(mCanvas, currentStrokePaint);
+							if (profile != null) {
+								profile.addDrawCall();
+							}
+						}
+						if (currentFillPaint != null) {
+							ts.mTextRun.draw(mCanvas, currentFillPaint);
+							if (profile != null) {
+								profile.addDrawCall();
+							}
+						}
+						mCanvas.restore();
+					}
+					break;
+				}
 				workingMatrix.getValues(matrixValues);
 				// We might have already got the values for currentMatrix
 				// before, to save
@@ -2665,7 +3660,7 @@ public class SVGParserRenderer extends DefaultHandler {
 				// ( (
 				// f[Matrix.MSCALE_Y] + f[Matrix.MSCALE_X] ) / 2 ) );
 
-				float translatePoints[] = new float[2];
+				float translatePoints[] = state.points;
 				translatePoints[0] = ts.x;
 				translatePoints[1] = ts.y;
 				workingMatrix.mapPoints(translatePoints);
@@ -2678,21 +3673,45 @@ public class SVGParserRenderer extends DefaultHandler {
 					animMatrix.postTranslate(remainderWidth, 0);
 				}
 
+				elementHandle = -1;
+				elementFlags = 0;
+				if (doSpecialIdCallbackForNextElement && elementState != null
+						&& elementState.isDriven(idstringIndex)) {
+					// Driven by the element state rather than the callback.
+					elementHandle = idstringIndex++;
+					elementFlags = elementState.mFlags[elementHandle];
+					if (elementState.getTransform(elementHandle,
+							state.scratchMatrix, matrixValues)) {
+						animMatrix.postConcat(state.scratchMatrix);
+					}
+					doSpecialIdCallbackForNextElement = false;
+					if ((elementFlags & SVGElementState.FLAG_HIDDEN) != 0) {
+						break;
+					}
+				}
+
 				do {
 
 					if (doSpecialIdCallbackForNextElement == true) {
 						if (animId == null) {
-							animId = idstringListIterator.next();
+							animId = idstringList.get(idstringIndex++);
 						}
 						if (animHandler != null) {
 
+							long callbackStart = profile != null ? System
+									.nanoTime() : 0;
 							doSpecialIdCallbackForNextElement = animHandler
 									.animTextElement(animId, animIteration++,
 											animMatrix, currentStrokePaint,
 											currentFillPaint, ts,
 											translatePoints[0],
 											translatePoints[1]);
-						
+							if (profile != null) {
+								profile.addCallback(System.nanoTime()
+										- callbackStart);
+							}
+							// The controller may have changed the text.
+							ts.checkTextChanged();
 						} else {
 							doSpecialIdCallbackForNextElement = false;
 						}
@@ -2703,39 +3722,40 @@ public class SVGParserRenderer extends DefaultHandler {
 					mCanvas.concat(workingMatrix);
 
 					if (currentStrokePaint != null && !mSkipPattern) {
-
-						float savedTextSize = currentStrokePaint.getTextSize();
-
-						if (ts.mTextLength > 0
-								&& ts.mSizeToFitTextLength == true) {
+						int storedStrokeColor = currentStrokePaint.getColor();
+						if ((elementFlags & SVGElementState.FLAG_STROKE_COLOR) != 0) {
 							currentStrokePaint
-									.setTextSize(Util.bestFitValueTextSize(
-											ts.mTextLength, savedTextSize,
-											ts.string.toString()));
+									.setColor(elementState.mStrokeColors[elementHandle]);
+						}
+						if ((elementFlags & SVGElementState.FLAG_ALPHA) != 0) {
+							applyAlpha(currentStrokePaint,
+									elementState.mAlphas[elementHandle]);
+						}
+						drawTextLayout(mCanvas, ts,
+								ts.getLayout(currentStrokePaint, true),
+								currentStrokePaint);
+						currentStrokePaint.setColor(storedStrokeColor);
+						if (profile != null) {
+							profile.addDrawCall();
 						}
-
-						mCanvas.drawText(ts.string, 0, ts.string.length(),
-								ts.x, ts.y, currentStrokePaint);
-
-						currentStrokePaint.setTextSize(savedTextSize);
 					}
 					if (currentFillPaint != null && !mSkipPattern) {
-
-						float savedTextSize = currentFillPaint.getTextSize();
-
-						if (ts.mTextLength > 0
-								&& ts.mSizeToFitTextLength == true) {
+						int storedFillColor = currentFillPaint.getColor();
+						if ((elementFlags & SVGElementState.FLAG_FILL_COLOR) != 0) {
 							currentFillPaint
-									.setTextSize(Util.bestFitValueTextSize(
-											ts.mTextLength, savedTextSize,
-											ts.string.toString()));
+									.setColor(elementState.mFillColors[elementHandle]);
+						}
+						if ((elementFlags & SVGElementState.FLAG_ALPHA) != 0) {
+							applyAlpha(currentFillPaint,
+									elementState.mAlphas[elementHandle]);
+						}
+						drawTextLayout(mCanvas, ts,
+								ts.getLayout(currentFillPaint, false),
+								currentFillPaint);
+						currentFillPaint.setColor(storedFillColor);
+						if (profile != null) {
+							profile.addDrawCall();
 						}
-
-						mCanvas.drawText(ts.string, 0, ts.string.length(),
-								ts.x, ts.y, currentFillPaint);
-
-						currentFillPaint.setTextSize(savedTextSize);
-
 					}
 
 					mCanvas.restore();
@@ -2748,8 +3768,12 @@ public class SVGParserRenderer extends DefaultHandler {
 				break;
 
 			case INST_ARC:
-				Arc arc = arcsListIterator.next();
-				if (animHandler != null) {
+				Arc arc = arcsList.get(arcIndex++);
+				if (elementState != null
+						&& arc.handle >= 0
+						&& (elementState.mFlags[arc.handle] & SVGElementState.FLAG_ARC) != 0) {
+					pendingArc = arc;
+				} else if (animHandler != null) {
 					animHandler.arcParams(arc.animId, carryPath,
 							arc.angleStart, arc.angleExtent, arc.bounds);
 				} else {
@@ -2759,9 +3783,132 @@ public class SVGParserRenderer extends DefaultHandler {
 				break;
 
 			}
+
+			if (profile != null) {
+				long nanos = System.nanoTime() - opStart;
+				profile.addOp(profileOp(bytecodeArr[codePtr]), nanos);
+				if (profileElement != null) {
+					profile.addElement(profileElement, nanos);
+				}
+			}
 			codePtr++;
 
 		}
+
+		if (profile != null) {
+			profile.finish(System.nanoTime() - paintStart);
+			mLastRenderProfile = profile;
+		}
+	}
+
+	/**
+	 * Multiply the paint's alpha by an element's opacity. The caller restores
+	 * the paint's colour after drawing.
+	 */
+	private static void applyAlpha(Paint paint, float alpha) {
+		paint.setAlpha(Math.round(paint.getAlpha()
+				* Math.max(0, Math.min(1, alpha))));
+	}
+
+	private static int profileOp(byte instruction) {
+		switch (instruction) {
+		case INST_PATH:
+			return SVGRenderProfile.OP_PATH;
+		case INST_TEXTSTRING:
+			return SVGRenderProfile.OP_TEXT;
+		case INST_ARC:
+			return SVGRenderProfile.OP_ARC;
+		case INST_STYLE:
+			return SVGRenderProfile.OP_STYLE;
+		default:
+			return SVGRenderProfile.OP_OTHER;
+		}
+	}
+
+	private static String elementName(String id, String type, int index) {
+		if (id != null && id.length() > 0) {
+			return id;
+		}
+		return type + "[" + index + "]";
+	}
+
+	/**
+	 * Give the style's fill paint the pattern shader for the given scale,
+	 * rendering the pattern tile if it hasn't been rendered at a similar
+	 * scale before.
+	 */
+	private void updatePatternShader(SvgStyle style, float scale) {
+		Shader shader = style.mFillPattern.getShader(this, scale);
+		if (style.fillPaint.getShader() != shader) {
+			style.fillPaint.setShader(shader);
+		}
+	}
+
+	/**
+	 * Obtain a paint for drawing a path with the given style paint, which has
+	 * a shader. The returned paint is private to the path and has its own copy
+	 * of the shader with the path's transforms already applied, so the shared
+	 * shader doesn't need to be modified.
+	 * 
+	 * @param staticPath
+	 *            True if the path isn't animated, in which case the style
+	 *            paint can't have changed since the paint was last prepared.
+	 * @return The paint to draw with, or null if the style's shader can't be
+	 *         copied (for example, if it was set by a controller).
+	 */
+	private Paint preparePaint(PreparedPaint prepared, Paint stylePaint,
+			Matrix workingMatrix, Matrix animMatrix, boolean staticPath) {
+		Shader source = stylePaint.getShader();
+		if (!prepared.isPreparedFor(source, workingMatrix, animMatrix)) {
+			Shader copy = prepared.getCopyOf(source);
+			if (copy == null) {
+				copy = copyShader(source);
+				if (copy == null) {
+					return null;
+				}
+			}
+			prepared.prepare(source, copy, workingMatrix, animMatrix);
+			return prepared.sync(stylePaint);
+		}
+		return staticPath ? prepared.getPaint() : prepared.sync(stylePaint);
+	}
+
+	private Shader copyShader(Shader shader) {
+		if (shader instanceof SVGPatternShader) {
+			return ((SVGPatternShader) shader).copy();
+		}
+		Gradient gradient = mShaderGradients.get(shader);
+		return gradient != null ? createGradientShader(gradient) : null;
+	}
+
+	/**
+	 * Apply the path's transforms to a shader that can't be copied, for
+	 * drawing with the shared paint. The shader's original local matrix is
+	 * stored in savedMatrix, and the caller must restore it after drawing.
+	 * The given matrix is used as scratch space.
+	 */
+	private static Shader transformSharedShader(Paint paint,
+			Matrix workingMatrix, Matrix animMatrix, Matrix savedMatrix,
+			Matrix matrix) {
+		Shader shader = paint.getShader();
+		shader.getLocalMatrix(savedMatrix);
+		matrix.set(savedMatrix);
+		matrix.postConcat(workingMatrix);
+		matrix.postConcat(animMatrix);
+		shader.setLocalMatrix(matrix);
+		return shader;
+	}
+
+	private static void drawTextLayout(ITpsvgCanvas canvas, Textstring ts,
+			TextLayout layout, Paint paint) {
+		float savedTextSize = paint.getTextSize();
+		if (layout.getTextSize() != savedTextSize) {
+			paint.setTextSize(layout.getTextSize());
+		}
+		canvas.drawText(ts.string, 0, ts.string.length(), ts.x, ts.y, paint);
+		if (layout.getTextSize() != savedTextSize) {
+			paint.setTextSize(savedTextSize);
+		}
 	}
 
 	/**
@@ -2787,6 +3934,10 @@ public class SVGParserRenderer extends DefaultHandler {
 		PatternFill mFillPattern;
 		PatternFill mStrokePattern;
 
+		// IDs of gradients referenced before they could be resolved.
+		String mFillGradientId;
+		String mStrokeGradientId;
+
 		/**
 		 * Create a new SvgStyle object with all the default initial values
 		 * applied in accordance with SVG standards. Useful reference for style
@@ -2858,6 +4009,8 @@ public class SVGParserRenderer extends DefaultHandler {
 			this.strokePaint.setTypeface(Typeface.DEFAULT);
 			this.hasFill = s.hasFill;
 			this.hasStroke = s.hasStroke;
+			this.mFillGradientId = s.mFillGradientId;
+			this.mStrokeGradientId = s.mStrokeGradientId;
 		}
 	}
 
@@ -2903,31 +4056,106 @@ public class SVGParserRenderer extends DefaultHandler {
 	 * 
 	 */
 	public class Textstring {
-		// TODO: Require an index into either a list of Strings or a single
-		// large char[] buffer.
-		// The char[] buffer could be contained within this object - perhaps
-		// that makes most sense.
 		public final float x, y;
-		public char[] charBuf;
-		public int charLength;
 		private boolean mAnchorRight;
 		private boolean mAnchorBottom;
 		private boolean mSizeToFitTextLength = false;
 		public int mTextLength = 0;
+		// The text, which both layouts are measured from. A controller may
+		// change it from animTextElement().
 		public StringBuilder string;
+		// The length and hash of the text when it was last measured, which
+		// detect changes made to string directly.
+		private int mMeasuredLength = -1;
+		private int mMeasuredHash;
 		protected ArrayList<Integer> mVisibleOnRotations;
+		// Measured layouts, one for each Paint the text is drawn with.
+		private final TextLayout mStrokeLayout = new TextLayout();
+		private final TextLayout mFillLayout = new TextLayout();
+		// The id attribute of the text element, for profiling.
+		String mId;
+		// Glyph run this text has been merged into, if any.
+		private TextRun mTextRun;
+		private boolean mTextRunHead;
 
 		public Textstring(float x, float y, char[] src, int srcPos, int length) {
 			this.x = x;
 			this.y = y;
-			this.charLength = length;
-			this.charBuf = new char[length + 1];
-			System.arraycopy(src, srcPos, this.charBuf, 0, length);
-			this.charBuf[length] = 0;
-			this.string = new StringBuilder();
+			this.string = new StringBuilder(length);
 			this.string.append(src, srcPos, length);
 		}
 
+		/**
+		 * Replace the text. Controllers may alternatively modify string
+		 * directly from within animTextElement(), which is detected.
+		 * Otherwise, after modifying string directly, invalidateLayout() must
+		 * be called.
+		 */
+		public void setText(CharSequence text) {
+			string.setLength(0);
+			string.append(text);
+			invalidateLayout();
+		}
+
+		public String getText() {
+			return string.toString();
+		}
+
+		/**
+		 * Discard the measured layouts of this text only, so they are
+		 * measured again the next time the text is drawn.
+		 */
+		public void invalidateLayout() {
+			mMeasuredLength = -1;
+			mStrokeLayout.invalidate();
+			mFillLayout.invalidate();
+			if (mTextRun != null) {
+				mTextRun.invalidate();
+			}
+		}
+
+		/**
+		 * Discard the measured layouts if string no longer holds the text
+		 * they were measured from. Comparing the length and hash doesn't
+		 * allocate, and is only done after a controller has had the chance
+		 * to change the text.
+		 */
+		void checkTextChanged() {
+			if (mMeasuredLength != -1
+					&& (string.length() != mMeasuredLength
+							|| hashText() != mMeasuredHash)) {
+				invalidateLayout();
+			}
+		}
+
+		private int hashText() {
+			int hash = 0;
+			for (int i = 0, length = string.length(); i < length; i++) {
+				hash = 31 * hash + string.charAt(i);
+			}
+			return hash;
+		}
+
+		TextLayout getLayout(Paint paint, boolean stroke) {
+			TextLayout layout = stroke ? mStrokeLayout : mFillLayout;
+			float fitWidth = mSizeToFitTextLength ? mTextLength : 0;
+			if (!layout.isValidFor(paint, fitWidth)) {
+				layout.layout(paint, string, fitWidth);
+				mMeasuredLength = string.length();
+				mMeasuredHash = hashText();
+			}
+			return layout;
+		}
+
+		/**
+		 * Obtain the total advance of the text when drawn with the given paint,
+		 * taking into account any sizing to fit textLength.
+		 */
+		public float getAdvance(Paint paint) {
+			return getLayout(paint, paint.getStyle() == Paint.Style.STROKE)
+					.getAdvance();
+		}
+
 		public void setTextLength(int textLength) {
 			mTextLength = textLength;
 		}
@@ -2951,11 +4179,72 @@ public class SVGParserRenderer extends DefaultHandler {
 		}
 	}
 
+	/**
+	 * Structural identity of a gradient: everything that determines what its
+	 * Shader draws, but not its ID.
+	 */
+	private static class GradientShaderKey {
+		private final boolean radial;
+		private final float[] geometry;
+		private final int[] colors;
+		private final float[] offsets;
+		private final float[] matrix = new float[9];
+		private final int hash;
+
+		public GradientShaderKey(Gradient gradient) {
+			radial = gradient.isRadial;
+			if (radial) {
+				geometry = new float[] { gradient.cx, gradient.cy,
+						gradient.radius };
+			} else {
+				geometry = new float[] { gradient.x1, gradient.y1,
+						gradient.x2, gradient.y2 };
+			}
+			colors = gradient.getStopColors();
+			offsets = gradient.getStopOffsets();
+			if (gradient.matrix != null) {
+				gradient.matrix.getValues(matrix);
+			} else {
+				new Matrix().getValues(matrix);
+			}
+			int h = radial ? 1 : 0;
+			h = 31 * h + Arrays.hashCode(geometry);
+			h = 31 * h + Arrays.hashCode(colors);
+			h = 31 * h + Arrays.hashCode(offsets);
+			h = 31 * h + Arrays.hashCode(matrix);
+			hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof GradientShaderKey)) {
+				return false;
+			}
+			GradientShaderKey k = (GradientShaderKey) o;
+			return hash == k.hash && radial == k.radial
+					&& Arrays.equals(geometry, k.geometry)
+					&& Arrays.equals(colors, k.colors)
+					&& Arrays.equals(offsets, k.offsets)
+					&& Arrays.equals(matrix, k.matrix);
+		}
+	}
+
 	private class Arc {
 		RectF bounds;
 		float angleStart;
 		float angleExtent;
 		String animId;
+		// The handle of the path the arc belongs to, if it's animated.
+		int handle = -1;
+		// The bounds mapped by the last matrix the arc was drawn with.
+		final RectF mappedBounds = new RectF();
+		private Matrix mMappedMatrix;
+		private boolean mMappedBoundsValid;
 
 		public Arc(RectF bounds, float angleStart, float angleExtent,
 				String animId) {
@@ -2964,5 +4253,33 @@ public class SVGParserRenderer extends DefaultHandler {
 			this.angleExtent = angleExtent;
 			this.animId = animId;
 		}
+
+		/**
+		 * Map the arc's bounds by the given matrix into mappedBounds, which
+		 * can only be done if the matrix keeps an arc an arc with the same
+		 * angles: it must only scale, by positive amounts, and translate. The
+		 * result is kept for as long as the arc is drawn with the same
+		 * matrix.
+		 * 
+		 * @param values
+		 *            Scratch space of at least 9 floats.
+		 * @return true if mappedBounds can be drawn in place of the arc.
+		 */
+		boolean mapBounds(Matrix matrix, float[] values) {
+			if (matrix != mMappedMatrix) {
+				matrix.getValues(values);
+				mMappedBoundsValid = values[Matrix.MSKEW_X] == 0
+						&& values[Matrix.MSKEW_Y] == 0
+						&& values[Matrix.MPERSP_0] == 0
+						&& values[Matrix.MPERSP_1] == 0
+						&& values[Matrix.MSCALE_X] > 0
+						&& values[Matrix.MSCALE_Y] > 0;
+				if (mMappedBoundsValid) {
+					matrix.mapRect(mappedBounds, bounds);
+				}
+				mMappedMatrix = matrix;
+			}
+			return mMappedBoundsValid;
+		}
 	}
 }
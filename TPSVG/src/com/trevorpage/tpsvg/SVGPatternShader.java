@@ -19,23 +19,72 @@ package com.trevorpage.tpsvg;
 import android.graphics.Bitmap;
 import android.graphics.BitmapShader;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
 import android.graphics.Shader;
 
+/**
+ * A Shader that repeats a tile rendered from the vector content of a
+ * &lt;pattern&gt; element. The tile can be rendered at a scale greater than
+ * one so that the pattern stays sharp when the document is drawn enlarged;
+ * the shader's local matrix maps the tile back to document units.
+ */
 public class SVGPatternShader extends BitmapShader {
 	
+	private final Bitmap mBitmap;
+	
 	public SVGPatternShader(SVGParserRenderer image, String subtreeId, 
 							float viewBoxX, float viewBoxY, float viewBoxW, float viewBoxH) {
-		super(createBitmap(image, subtreeId, viewBoxX, viewBoxY, viewBoxW, viewBoxH), Shader.TileMode.REPEAT, Shader.TileMode.REPEAT);
+		this(image, subtreeId, viewBoxX, viewBoxY, viewBoxW, viewBoxH, 1);
+	}
+	
+	public SVGPatternShader(SVGParserRenderer image, String subtreeId, 
+							float viewBoxX, float viewBoxY, float viewBoxW, float viewBoxH, float scale) {
+		this(renderTile(image, subtreeId, viewBoxX, viewBoxY, viewBoxW, viewBoxH, scale), scale);
+	}
+	
+	/**
+	 * Create a shader for a tile that has already been rendered.
+	 * @param bitmap The tile.
+	 * @param scale The scale the tile was rendered at.
+	 */
+	public SVGPatternShader(Bitmap bitmap, float scale) {
+		super(bitmap, Shader.TileMode.REPEAT, Shader.TileMode.REPEAT);
+		mBitmap = bitmap;
+		Matrix matrix = new Matrix();
+		matrix.setScale(1 / scale, 1 / scale);
+		setLocalMatrix(matrix);
+	}
+	
+	/**
+	 * Create another shader for the same pattern tile, sharing the tile bitmap.
+	 */
+	public SVGPatternShader copy() {
+		SVGPatternShader shader = new SVGPatternShader(mBitmap, 1);
+		Matrix matrix = new Matrix();
+		getLocalMatrix(matrix);
+		shader.setLocalMatrix(matrix);
+		return shader;
+	}
+	
+	public Bitmap getBitmap() {
+		return mBitmap;
 	}
 	
-	private static Bitmap createBitmap(SVGParserRenderer image, String subtreeId, 
-			float viewBoxX, float viewBoxY, float viewBoxW, float viewBoxH) {
-		Bitmap bitmap = Bitmap.createBitmap((int)viewBoxW, (int)viewBoxH, Bitmap.Config.ARGB_8888);
+	/**
+	 * Render a pattern tile.
+	 */
+	public static Bitmap renderTile(SVGParserRenderer image, String subtreeId, 
+			float viewBoxX, float viewBoxY, float viewBoxW, float viewBoxH, float scale) {
+		long start = System.nanoTime();
+		Bitmap bitmap = Bitmap.createBitmap(Math.max(1, Math.round(viewBoxW * scale)),
+				Math.max(1, Math.round(viewBoxH * scale)), Bitmap.Config.ARGB_8888);
 		Canvas canvas = new Canvas(bitmap);
 		canvas.save();
+		canvas.scale(scale, scale);
 		canvas.translate(-viewBoxX, -viewBoxY);
 		image.paintImage(canvas, subtreeId, 0, 0, 0, null, true);
 		canvas.restore();
+		image.addPatternTileStats(System.nanoTime() - start);
 		return bitmap;
 	}
 }
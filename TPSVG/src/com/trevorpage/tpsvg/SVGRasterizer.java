@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+/**
+ * Renders documents to Bitmaps or PNG images, without a View, for producing
+ * snapshots. Each call draws to a Bitmap of its own, so any number of
+ * documents can be rasterized in parallel from a pool of threads. Calls for
+ * the same document are serialised by paintImage(). Rendering is done in
+ * software, to a Bitmap-backed Canvas.
+ */
+public class SVGRasterizer {
+
+	private SVGRasterizer() {
+	}
+
+	/**
+	 * Render the whole document to a new ARGB_8888 Bitmap, scaled to fit while
+	 * keeping its aspect ratio.
+	 * 
+	 * @param controller
+	 *            Controller to animate elements with, or null.
+	 */
+	public static Bitmap rasterize(SVGParserRenderer image, int width,
+			int height, ITpsvgController controller) {
+		return rasterize(image, null, width, height, controller, false, 0);
+	}
+
+	/**
+	 * Render the document, or a subtree of it, to a new ARGB_8888 Bitmap. The
+	 * arguments have the same meaning as those of
+	 * SVGParserRenderer.paintImage().
+	 */
+	public static Bitmap rasterize(SVGParserRenderer image, String subtreeId,
+			int width, int height, ITpsvgController controller, boolean fill,
+			int rotation) {
+		Bitmap bitmap = Bitmap.createBitmap(width, height,
+				Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(bitmap);
+		image.paintImage(canvas, subtreeId, width, height, controller, fill,
+				rotation);
+		return bitmap;
+	}
+
+	/**
+	 * Render the whole document and write it to the stream as a PNG image.
+	 * The stream isn't closed.
+	 */
+	public static void writePng(SVGParserRenderer image, int width,
+			int height, ITpsvgController controller, OutputStream out)
+			throws IOException {
+		Bitmap bitmap = rasterize(image, width, height, controller);
+		try {
+			if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+				throw new IOException("PNG encoding failed");
+			}
+			out.flush();
+		} finally {
+			bitmap.recycle();
+		}
+	}
+}
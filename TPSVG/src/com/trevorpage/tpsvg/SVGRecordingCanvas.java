@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+/**
+ * An ITpsvgCanvas that records the draw operations made to it, instead of
+ * drawing. Each recorded Command holds copies of the path, paint and current
+ * transform at the time it was made, so the recording isn't affected by the
+ * renderer reusing those objects. Recordings can be used to check that a
+ * change to the evaluator draws the same thing as before, by comparing their
+ * describe() output, and to count draw calls. An arc is recorded as the
+ * drawPath() of the equivalent path, so that a recording doesn't depend on
+ * whether the evaluator drew an element as an arc or as a path:
+ * 
+ * <pre>
+ * SVGRecordingCanvas recording = new SVGRecordingCanvas();
+ * image.paintImage(recording, null, 0, 0, 0, null, false);
+ * assertEquals(golden, recording.describe());
+ * </pre>
+ */
+public class SVGRecordingCanvas implements ITpsvgCanvas {
+
+	public static final int OP_DRAW_PATH = 0;
+	public static final int OP_DRAW_TEXT = 1;
+	public static final int OP_DRAW_POS_TEXT = 2;
+
+	private static final String[] OP_NAMES = { "drawPath", "drawText",
+			"drawPosText" };
+
+	/**
+	 * A recorded draw operation.
+	 */
+	public static class Command {
+		public final int op;
+		/** The canvas transform the operation was made with. */
+		public final Matrix matrix;
+		public final Paint paint;
+		/** The local matrix of the paint's shader, if it has one. */
+		public final Matrix shaderMatrix;
+		/** The path drawn, for OP_DRAW_PATH. */
+		public final Path path;
+		/** The text drawn, for OP_DRAW_TEXT and OP_DRAW_POS_TEXT. */
+		public final String text;
+		/** The position of the text, for OP_DRAW_TEXT. */
+		public final float x, y;
+		/** The glyph positions, for OP_DRAW_POS_TEXT. */
+		public final float[] positions;
+
+		Command(int op, Matrix matrix, Paint paint, Path path, String text,
+				float x, float y, float[] positions) {
+			this.op = op;
+			this.matrix = new Matrix(matrix);
+			this.paint = new Paint(paint);
+			Shader shader = paint.getShader();
+			if (shader != null) {
+				shaderMatrix = new Matrix();
+				shader.getLocalMatrix(shaderMatrix);
+			} else {
+				shaderMatrix = null;
+			}
+			this.path = path != null ? new Path(path) : null;
+			this.text = text;
+			this.x = x;
+			this.y = y;
+			this.positions = positions;
+		}
+
+		/**
+		 * @return A textual description of the command that includes
+		 *         everything affecting what it draws, apart from the exact
+		 *         geometry of paths, which is represented by their bounds.
+		 */
+		public String describe() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(OP_NAMES[op]);
+			appendMatrix(sb.append(" matrix="), matrix);
+			sb.append(" color=").append(Integer.toHexString(paint.getColor()));
+			sb.append(" style=").append(paint.getStyle());
+			sb.append(" strokeWidth=").append(paint.getStrokeWidth());
+			if (shaderMatrix != null) {
+				sb.append(" shader=")
+						.append(paint.getShader().getClass().getSimpleName());
+				appendMatrix(sb.append(" shaderMatrix="), shaderMatrix);
+			}
+			if (path != null) {
+				RectF bounds = new RectF();
+				path.computeBounds(bounds, true);
+				sb.append(" bounds=[").append(bounds.left).append(',')
+						.append(bounds.top).append(',').append(bounds.right)
+						.append(',').append(bounds.bottom).append(']');
+			}
+			if (text != null) {
+				sb.append(" textSize=").append(paint.getTextSize());
+				sb.append(" text=\"").append(text).append('"');
+				if (positions != null) {
+					sb.append(" pos=[");
+					for (int i = 0; i < positions.length; i++) {
+						sb.append(i == 0 ? "" : ",").append(positions[i]);
+					}
+					sb.append(']');
+				} else {
+					sb.append(" at=").append(x).append(',').append(y);
+				}
+			}
+			return sb.toString();
+		}
+
+		private static void appendMatrix(StringBuilder sb, Matrix matrix) {
+			float[] values = new float[9];
+			matrix.getValues(values);
+			sb.append('[');
+			for (int i = 0; i < 9; i++) {
+				sb.append(i == 0 ? "" : ",").append(values[i]);
+			}
+			sb.append(']');
+		}
+	}
+
+	private final ArrayList<Command> mCommands = new ArrayList<Command>();
+	private final ArrayList<Matrix> mSaveStack = new ArrayList<Matrix>();
+	private final int[] mOpCounts = new int[OP_NAMES.length];
+	private Matrix mMatrix = new Matrix();
+
+	/**
+	 * @return The commands recorded so far, in the order they were made.
+	 */
+	public List<Command> getCommands() {
+		return Collections.unmodifiableList(mCommands);
+	}
+
+	public int getCommandCount() {
+		return mCommands.size();
+	}
+
+	/**
+	 * @return The number of commands recorded for the given operation, e.g.
+	 *         OP_DRAW_PATH.
+	 */
+	public int getCommandCount(int op) {
+		return mOpCounts[op];
+	}
+
+	/**
+	 * Discard the recorded commands, and reset the transform.
+	 */
+	public void clear() {
+		mCommands.clear();
+		mSaveStack.clear();
+		for (int i = 0; i < mOpCounts.length; i++) {
+			mOpCounts[i] = 0;
+		}
+		mMatrix.reset();
+	}
+
+	/**
+	 * @return A description of every recorded command, one per line.
+	 */
+	public String describe() {
+		StringBuilder sb = new StringBuilder();
+		for (Command command : mCommands) {
+			sb.append(command.describe()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	public int save() {
+		mSaveStack.add(new Matrix(mMatrix));
+		return mSaveStack.size();
+	}
+
+	public void restore() {
+		if (!mSaveStack.isEmpty()) {
+			mMatrix = mSaveStack.remove(mSaveStack.size() - 1);
+		}
+	}
+
+	public void concat(Matrix matrix) {
+		mMatrix.preConcat(matrix);
+	}
+
+	public void scale(float sx, float sy) {
+		mMatrix.preScale(sx, sy);
+	}
+
+	public void rotate(float degrees) {
+		mMatrix.preRotate(degrees);
+	}
+
+	public void translate(float dx, float dy) {
+		mMatrix.preTranslate(dx, dy);
+	}
+
+	public void getMatrix(Matrix matrix) {
+		matrix.set(mMatrix);
+	}
+
+	public void drawPath(Path path, Paint paint) {
+		record(new Command(OP_DRAW_PATH, mMatrix, paint, path, null, 0, 0,
+				null));
+	}
+
+	public void drawArc(RectF oval, float startAngle, float sweepAngle,
+			boolean useCenter, Paint paint) {
+		Path path = new Path();
+		if (useCenter) {
+			path.moveTo(oval.centerX(), oval.centerY());
+			path.arcTo(oval, startAngle, sweepAngle);
+			path.close();
+		} else {
+			path.addArc(oval, startAngle, sweepAngle);
+		}
+		drawPath(path, paint);
+	}
+
+	public void drawText(CharSequence text, int start, int end, float x,
+			float y, Paint paint) {
+		record(new Command(OP_DRAW_TEXT, mMatrix, paint, null, text
+				.subSequence(start, end).toString(), x, y, null));
+	}
+
+	public void drawPosText(char[] text, int index, int count, float[] pos,
+			Paint paint) {
+		float[] positions = new float[count * 2];
+		System.arraycopy(pos, 0, positions, 0, count * 2);
+		record(new Command(OP_DRAW_POS_TEXT, mMatrix, paint, null, new String(
+				text, index, count), 0, 0, positions));
+	}
+
+	private void record(Command command) {
+		mCommands.add(command);
+		mOpCounts[command.op]++;
+	}
+}
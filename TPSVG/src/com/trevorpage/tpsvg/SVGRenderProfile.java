@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Profile of a single call to paintImage(), showing where its time went:
+ * the time spent on each class of instruction, the number of draw calls made
+ * to the Canvas, the time spent in the controller's animElement() and
+ * animTextElement() callbacks, and the elements that took longest to draw.
+ * Profiling is enabled for a document with
+ * SVGParserRenderer.setRenderProfilingEnabled(), after which the profile of
+ * the most recent call is obtained with
+ * SVGParserRenderer.getLastRenderProfile().
+ * 
+ * Elements are identified by their id attribute where they have one. Others
+ * are identified by their type and the order in which they were drawn, e.g.
+ * "path[12]".
+ */
+public class SVGRenderProfile {
+
+	/** Paths and shapes, including pattern tiles rendered for them. */
+	public static final int OP_PATH = 0;
+	/** Text, including coalesced text runs. */
+	public static final int OP_TEXT = 1;
+	/** Arcs. */
+	public static final int OP_ARC = 2;
+	/** Switching to a new style. */
+	public static final int OP_STYLE = 3;
+	/** Everything else: transforms, groups and IDs. */
+	public static final int OP_OTHER = 4;
+
+	public static final int OP_COUNT = 5;
+
+	private static final String[] OP_NAMES = { "path", "text", "arc", "style",
+			"other" };
+
+	private static final int DEFAULT_TOP_ELEMENT_COUNT = 5;
+
+	private final long[] mOpNanos = new long[OP_COUNT];
+	private final int[] mOpCounts = new int[OP_COUNT];
+	private long mTotalNanos;
+	private int mDrawCallCount;
+	private long mCallbackNanos;
+	private int mCallbackCount;
+	private HashMap<String, ElementCost> mElements = new HashMap<String, ElementCost>();
+	private List<ElementCost> mTopElements;
+
+	/**
+	 * The time taken to draw one element, including any controller callbacks
+	 * made for it.
+	 */
+	public static class ElementCost {
+		public final String id;
+		private long mNanos;
+
+		ElementCost(String id) {
+			this.id = id;
+		}
+
+		public long getNanos() {
+			return mNanos;
+		}
+	}
+
+	public static String getOpName(int op) {
+		return OP_NAMES[op];
+	}
+
+	public long getOpNanos(int op) {
+		return mOpNanos[op];
+	}
+
+	/**
+	 * @return The number of instructions of the given class evaluated.
+	 */
+	public int getOpCount(int op) {
+		return mOpCounts[op];
+	}
+
+	/**
+	 * @return The wall time of the whole call, in nanoseconds.
+	 */
+	public long getTotalNanos() {
+		return mTotalNanos;
+	}
+
+	public int getDrawCallCount() {
+		return mDrawCallCount;
+	}
+
+	/**
+	 * @return The time spent in animElement() and animTextElement(), in
+	 *         nanoseconds. This is also included in the path and text times.
+	 */
+	public long getCallbackNanos() {
+		return mCallbackNanos;
+	}
+
+	public int getCallbackCount() {
+		return mCallbackCount;
+	}
+
+	/**
+	 * @return The elements that took longest to draw, most expensive first.
+	 */
+	public List<ElementCost> getTopElements() {
+		return mTopElements;
+	}
+
+	void addOp(int op, long nanos) {
+		mOpNanos[op] += nanos;
+		mOpCounts[op]++;
+	}
+
+	void addDrawCall() {
+		mDrawCallCount++;
+	}
+
+	void addCallback(long nanos) {
+		mCallbackNanos += nanos;
+		mCallbackCount++;
+	}
+
+	void addElement(String id, long nanos) {
+		ElementCost cost = mElements.get(id);
+		if (cost == null) {
+			cost = new ElementCost(id);
+			mElements.put(id, cost);
+		}
+		cost.mNanos += nanos;
+	}
+
+	/**
+	 * Complete the profile once the call has finished.
+	 */
+	void finish(long totalNanos) {
+		mTotalNanos = totalNanos;
+		ArrayList<ElementCost> elements = new ArrayList<ElementCost>(
+				mElements.values());
+		Collections.sort(elements, new Comparator<ElementCost>() {
+			public int compare(ElementCost a, ElementCost b) {
+				return a.mNanos < b.mNanos ? 1 : (a.mNanos > b.mNanos ? -1 : 0);
+			}
+		});
+		mTopElements = Collections.unmodifiableList(new ArrayList<ElementCost>(
+				elements.subList(0,
+						Math.min(DEFAULT_TOP_ELEMENT_COUNT, elements.size()))));
+		mElements = null;
+	}
+
+	/**
+	 * @return The profile as a single compact line, for logging. Times are in
+	 *         microseconds, and instruction classes are given as
+	 *         time/count.
+	 */
+	public String toLogLine() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("paint ").append(mTotalNanos / 1000).append("us");
+		for (int i = 0; i < OP_COUNT; i++) {
+			sb.append(' ').append(OP_NAMES[i]).append('=')
+					.append(mOpNanos[i] / 1000).append('/')
+					.append(mOpCounts[i]);
+		}
+		sb.append(" draws=").append(mDrawCallCount);
+		sb.append(" callbacks=").append(mCallbackNanos / 1000).append('/')
+				.append(mCallbackCount);
+		if (mTopElements != null && !mTopElements.isEmpty()) {
+			sb.append(" top=");
+			for (int i = 0; i < mTopElements.size(); i++) {
+				ElementCost cost = mTopElements.get(i);
+				sb.append(i == 0 ? "" : ",").append(cost.id).append(':')
+						.append(cost.mNanos / 1000);
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return toLogLine();
+	}
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.trevorpage.tpsvg;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes element state from a producer thread, such as one receiving
+ * telemetry, to the thread that renders it, without either ever waiting for
+ * the other. The producer edits its own copy of the state and publishes it
+ * as a whole, so a frame never draws a half-made update; a burst of updates
+ * made while a frame is pending results in one render, of the latest state:
+ * 
+ * <pre>
+ * // Producer thread
+ * SVGElementState state = publisher.edit();
+ * state.setRotate(needle, angle, pivotX, pivotY);
+ * state.setFillColor(warning, color);
+ * publisher.publish();
+ * 
+ * // The view's ITpsvgStateController
+ * public SVGElementState getElementState() {
+ * 	return publisher.acquire();
+ * }
+ * </pre>
+ * 
+ * A view set with setView() tells the publisher of each frame it draws, even
+ * one it serves from its existing bitmap without acquiring the state, so
+ * that a frame request is never left pending with nothing to clear it.
+ * 
+ * The state is triple buffered. The producer owns one buffer, the renderer
+ * another, and the third holds the latest published state; publishing and
+ * acquiring each swap buffers with a single atomic operation. There may be
+ * one producer thread at a time, and edit() and publish() must not be called
+ * concurrently with each other.
+ */
+public class SVGStatePublisher {
+
+	private static final int INDEX_MASK = 0x3;
+	private static final int FRESH = 0x4;
+
+	private final SVGElementState[] mBuffers;
+	// The index of the buffer holding the latest published state, and FRESH
+	// if the renderer hasn't acquired it yet.
+	private final AtomicInteger mMiddle = new AtomicInteger(1);
+	private final AtomicBoolean mFramePending = new AtomicBoolean(false);
+	private int mBack = 0;
+	private int mFront = 2;
+	private volatile long mPublishedVersion;
+	private volatile SVGView mView;
+
+	public SVGStatePublisher(SVGParserRenderer image) {
+		mBuffers = new SVGElementState[] { image.createElementState(),
+				image.createElementState(), image.createElementState() };
+	}
+
+	/**
+	 * Set the view to redraw when state is published.
+	 */
+	public void setView(SVGView view) {
+		SVGView previous = mView;
+		if (previous != null) {
+			previous.setStatePublisher(null);
+		}
+		mView = view;
+		if (view != null) {
+			view.setStatePublisher(this);
+		}
+	}
+
+	/**
+	 * @return The producer's copy of the state, which holds what was last
+	 *         published plus any edits made since. Call from the producer
+	 *         thread only.
+	 */
+	public SVGElementState edit() {
+		return mBuffers[mBack];
+	}
+
+	/**
+	 * Publish the edits made to the state returned by edit(), and request a
+	 * frame unless one is already pending or nothing was edited. Call from
+	 * the producer thread only.
+	 */
+	public void publish() {
+		SVGElementState published = mBuffers[mBack];
+		if (published.getVersion() == mPublishedVersion) {
+			return;
+		}
+		mBack = mMiddle.getAndSet(mBack | FRESH) & INDEX_MASK;
+		// Set after the swap, so that a renderer that sees the version can't
+		// then acquire an older state. At worst it sees the old version with
+		// the new state, and draws one frame more than it needed to.
+		mPublishedVersion = published.getVersion();
+		// Carry the published state forward, so that edits are incremental.
+		mBuffers[mBack].copyFrom(published);
+
+		SVGView view = mView;
+		if (view != null && mFramePending.compareAndSet(false, true)) {
+			view.invalidateBitmap();
+		}
+	}
+
+	/**
+	 * @return The version of the latest published state, which a controller
+	 *         can return from ITpsvgVersionedController.getStateVersion().
+	 */
+	public long getPublishedVersion() {
+		return mPublishedVersion;
+	}
+
+	/**
+	 * Note that a frame has started, which consumes any pending frame
+	 * request. Call from the rendering thread at the start of every frame,
+	 * before reading the published version, whether or not the frame goes on
+	 * to acquire the state. SVGView does this for the publisher set on it.
+	 */
+	public void onFrame() {
+		// Clearing this first means a publish made after it, whose version
+		// the frame may have missed, requests another frame.
+		mFramePending.set(false);
+	}
+
+	/**
+	 * @return The latest published state, which stays unchanged until the
+	 *         next call. Call from the rendering thread only, once per frame.
+	 */
+	public SVGElementState acquire() {
+		onFrame();
+		if ((mMiddle.get() & FRESH) != 0) {
+			mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+		}
+		return mBuffers[mFront];
+	}
+}
@@ -23,6 +23,8 @@ import android.graphics.Paint;
 import android.util.AttributeSet;
 import android.view.View;
 
+import com.trevorpage.tpsvg.internal.FrameClock;
+
 public class SVGView extends View {
 
 	@SuppressWarnings("unused")
@@ -30,8 +32,19 @@ public class SVGView extends View {
 	private Paint mDrawPaint = new Paint();
 	private SVGParserRenderer mSvgImage;
 	private ITpsvgController mController;
+	private SVGAnimator mAnimator;
+	// Advances mAnimator once per display frame while it has tweens running
+	// and the view is shown. Made when first needed, on the UI thread.
+	private FrameClock mFrameClock;
+	private boolean mAttached = false;
+	private boolean mWindowVisible = true;
+	private volatile SVGStatePublisher mStatePublisher;
+	// The controller's state version that mRenderBitmap was last drawn with,
+	// valid only while mRenderCurrent is true.
+	private long mRenderedVersion;
+	private boolean mRenderCurrent = false;
 	Bitmap mRenderBitmap = null;
-	boolean mEntireRedrawNeeded = false;
+	volatile boolean mEntireRedrawNeeded = false;
 	String subtree = null;
 	private int mRotation = 0;
 	Canvas mCanvas;
@@ -66,6 +79,7 @@ public class SVGView extends View {
 	 */
 	public void setFill(boolean fill) {
 		mFill = fill;
+		mRenderCurrent = false;
 	}
 
 	/**
@@ -94,6 +108,7 @@ public class SVGView extends View {
 	 */
 	public void setOrientation(int rotation) {
 		mRotation = rotation;
+		mRenderCurrent = false;
 	}
 
 	/**
@@ -195,6 +210,7 @@ public class SVGView extends View {
 	public void setSVGRenderer(SVGParserRenderer image, String subtreeTagName) {
 		mSvgImage = image;
 		setSubtree(subtreeTagName);
+		mRenderCurrent = false;
 	}
 
 	public void bindController(ITpsvgController controller) {
@@ -203,6 +219,7 @@ public class SVGView extends View {
 					"The parsed SVG image object needs to be specified first.");
 		}
 		mController = controller;
+		mRenderCurrent = false;
 		// TODO: This is potentially going to be done multiple times, once for
 		// each child SVGView of the
 		// widget. I question at the moment if / why the controller should be
@@ -213,6 +230,98 @@ public class SVGView extends View {
 		mSvgImage.obtainSVGPrivateData(mController);
 	}
 
+	/**
+	 * Set the animator whose tweens this view draws. While it has tweens
+	 * running, and the view is attached to a visible window, the view
+	 * advances it on every display frame and redraws. The animator's element state must also be given
+	 * to paintImage(), by binding the animator as the controller or by
+	 * returning its state from the bound controller.
+	 * 
+	 * @param animator
+	 *            The animator, or null.
+	 */
+	public void setAnimator(SVGAnimator animator) {
+		if (mAnimator != null) {
+			mAnimator.setView(null);
+		}
+		mAnimator = animator;
+		if (animator != null) {
+			animator.setView(this);
+		}
+		updateFrameClock();
+	}
+
+	public SVGAnimator getAnimator() {
+		return mAnimator;
+	}
+
+	/**
+	 * Called by SVGAnimator when a tween is started. Must be called on the UI
+	 * thread.
+	 */
+	void onAnimationStarted() {
+		invalidateBitmap();
+		updateFrameClock();
+	}
+
+	/**
+	 * Request the next animation frame if the animator has tweens running and
+	 * the view can be seen, and otherwise cancel any frame requested.
+	 */
+	private void updateFrameClock() {
+		if (mAnimator != null && mAnimator.isRunning() && mAttached
+				&& mWindowVisible) {
+			if (mFrameClock == null) {
+				mFrameClock = FrameClock.create(new FrameClock.IFrameCallback() {
+					public void onFrame(long frameTimeMillis) {
+						onAnimationFrame(frameTimeMillis);
+					}
+				});
+			}
+			mFrameClock.requestFrame();
+		} else if (mFrameClock != null) {
+			mFrameClock.cancel();
+		}
+	}
+
+	private void onAnimationFrame(long frameTimeMillis) {
+		if (mAnimator != null && mAnimator.isRunning()) {
+			mAnimator.update(frameTimeMillis);
+			mEntireRedrawNeeded = true;
+			invalidate();
+		}
+		updateFrameClock();
+	}
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		mAttached = true;
+		updateFrameClock();
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		mAttached = false;
+		updateFrameClock();
+		super.onDetachedFromWindow();
+	}
+
+	@Override
+	protected void onWindowVisibilityChanged(int visibility) {
+		super.onWindowVisibilityChanged(visibility);
+		mWindowVisible = visibility == VISIBLE;
+		updateFrameClock();
+	}
+
+	/**
+	 * Set by SVGStatePublisher.setView(), so that the publisher is told of
+	 * every frame.
+	 */
+	void setStatePublisher(SVGStatePublisher publisher) {
+		mStatePublisher = publisher;
+	}
+
 	/**
 	 * Specify the particular subtree (or 'node') of the original SVG XML file
 	 * that this view shall render. The default is null, which results in the
@@ -222,6 +331,7 @@ public class SVGView extends View {
 	 */
 	public void setSubtree(String subtreeId) {
 		subtree = subtreeId;
+		mRenderCurrent = false;
 	}
 
 	@Override
@@ -231,15 +341,32 @@ public class SVGView extends View {
 			mRenderBitmap = Bitmap.createBitmap(getMeasuredWidth(),
 					getMeasuredHeight(), Bitmap.Config.ARGB_8888);
 			mEntireRedrawNeeded = true;
+			mRenderCurrent = false;
 			mCanvas = new Canvas(mRenderBitmap);
 		}
 
+		// Consume the publisher's frame request even if this frame doesn't
+		// go on to draw, or it would never request another.
+		SVGStatePublisher publisher = mStatePublisher;
+		if (publisher != null) {
+			publisher.onFrame();
+		}
+
 		if (mEntireRedrawNeeded) {
 			mEntireRedrawNeeded = false;
-			mRenderBitmap.eraseColor(android.graphics.Color.TRANSPARENT);
-			Canvas c = new Canvas(mRenderBitmap);
-			mSvgImage.paintImage(c, subtree, getWidth(), getHeight(),
-					mController, mFill, mRotation);
+			// A controller that reports a state version lets a frame in which
+			// nothing changed be served from the existing bitmap.
+			boolean versioned = mController instanceof ITpsvgVersionedController;
+			long version = versioned ? ((ITpsvgVersionedController) mController)
+					.getStateVersion() : 0;
+			if (!versioned || !mRenderCurrent || version != mRenderedVersion) {
+				mRenderBitmap.eraseColor(android.graphics.Color.TRANSPARENT);
+				Canvas c = new Canvas(mRenderBitmap);
+				mSvgImage.paintImage(c, subtree, getWidth(), getHeight(),
+						mController, mFill, mRotation);
+				mRenderedVersion = version;
+				mRenderCurrent = versioned;
+			}
 		}
 
 		canvas.drawBitmap(mRenderBitmap, 0f, 0f, mDrawPaint);
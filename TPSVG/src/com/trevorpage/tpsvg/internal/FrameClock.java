@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.trevorpage.tpsvg.internal;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Delivers animation frames to a callback, one frame per request. From API 16
+ * frames come from the Choreographer, so they are timed with the display's
+ * vsync like other View animation; before that a Handler message is posted
+ * for every FALLBACK_FRAME_MILLIS. Frame times are in the time base of
+ * SystemClock.uptimeMillis(). Must be created and used on a Looper thread,
+ * normally the UI thread.
+ */
+public abstract class FrameClock {
+
+	/** The frame interval used before API 16. */
+	private static final long FALLBACK_FRAME_MILLIS = 16;
+
+	public interface IFrameCallback {
+		/**
+		 * @param frameTimeMillis The time of the frame, in the time base of
+		 * SystemClock.uptimeMillis().
+		 */
+		void onFrame(long frameTimeMillis);
+	}
+
+	private final IFrameCallback mCallback;
+	private boolean mRequested;
+
+	public static FrameClock create(IFrameCallback callback) {
+		if (Build.VERSION.SDK_INT >= 16) {
+			return new ChoreographerClock(callback);
+		}
+		return new HandlerClock(callback);
+	}
+
+	private FrameClock(IFrameCallback callback) {
+		mCallback = callback;
+	}
+
+	/**
+	 * Request a call to the callback for the next frame. Does nothing if one
+	 * is already requested.
+	 */
+	public void requestFrame() {
+		if (!mRequested) {
+			mRequested = true;
+			post();
+		}
+	}
+
+	/**
+	 * Cancel any frame requested.
+	 */
+	public void cancel() {
+		if (mRequested) {
+			mRequested = false;
+			remove();
+		}
+	}
+
+	protected void dispatchFrame(long frameTimeMillis) {
+		mRequested = false;
+		mCallback.onFrame(frameTimeMillis);
+	}
+
+	protected abstract void post();
+
+	protected abstract void remove();
+
+	/**
+	 * Loaded only from API 16, where the Choreographer exists.
+	 */
+	private static class ChoreographerClock extends FrameClock implements Choreographer.FrameCallback {
+		private final Choreographer mChoreographer = Choreographer.getInstance();
+
+		ChoreographerClock(IFrameCallback callback) {
+			super(callback);
+		}
+
+		public void doFrame(long frameTimeNanos) {
+			// The Choreographer's frame times are in the System.nanoTime() time
+			// base, which is the same clock as SystemClock.uptimeMillis().
+			dispatchFrame(frameTimeNanos / 1000000);
+		}
+
+		@Override
+		protected void post() {
+			mChoreographer.postFrameCallback(this);
+		}
+
+		@Override
+		protected void remove() {
+			mChoreographer.removeFrameCallback(this);
+		}
+	}
+
+	private static class HandlerClock extends FrameClock implements Runnable {
+		private final Handler mHandler = new Handler();
+
+		HandlerClock(IFrameCallback callback) {
+			super(callback);
+		}
+
+		public void run() {
+			dispatchFrame(SystemClock.uptimeMillis());
+		}
+
+		@Override
+		protected void post() {
+			mHandler.postDelayed(this, FALLBACK_FRAME_MILLIS);
+		}
+
+		@Override
+		protected void remove() {
+			mHandler.removeCallbacks(this);
+		}
+	}
+}
@@ -16,8 +16,6 @@
 
 package com.trevorpage.tpsvg.internal;
 
-import java.util.ArrayList;
-
 import android.graphics.Matrix;
 import android.graphics.Shader;
 
@@ -45,7 +43,11 @@ public class Gradient {
 	public float fy;
 	public String href = null;
 
-	public ArrayList<StopColor> stopColors = new ArrayList<StopColor>(); 
+	// Stops are accumulated in primitive arrays that grow as needed, and are
+	// trimmed to size once when first handed out for creating a Shader.
+	private int[] mStopColors = new int[4];
+	private float[] mStopOffsets = new float[4];
+	private int mStopCount = 0;
 		
 	public void setCoordinates(float x1, float y1, float x2, float y2){
 		this.x1 = x1;
@@ -54,13 +56,72 @@ public class Gradient {
 		this.y2 = y2;
 	}
 	
-	public static class StopColor {
-		public int color;
-		public float offset;
-		
-		public StopColor(int color, float offset) {
-			this.color = color;
-			this.offset = offset;
+	/**
+	 * Add a stop. The offset is clamped to the range 0..1 and to be no less than
+	 * that of the previous stop, as the SVG specification requires.
+	 */
+	public void addStop(int color, float offset) {
+		if (offset < 0) {
+			offset = 0;
+		} else if (offset > 1) {
+			offset = 1;
+		}
+		if (mStopCount > 0 && offset < mStopOffsets[mStopCount - 1]) {
+			offset = mStopOffsets[mStopCount - 1];
 		}
+		if (mStopCount == mStopColors.length) {
+			resizeStops(Math.max(4, mStopCount * 2));
+		}
+		mStopColors[mStopCount] = color;
+		mStopOffsets[mStopCount] = offset;
+		mStopCount++;
+	}
+	
+	public int getStopCount() {
+		return mStopCount;
+	}
+	
+	/**
+	 * @return The stop colours, in an array exactly getStopCount() long. The array
+	 * must not be modified.
+	 */
+	public int[] getStopColors() {
+		trimStops();
+		return mStopColors;
+	}
+	
+	/**
+	 * @return The stop offsets, in an array exactly getStopCount() long. The array
+	 * must not be modified.
+	 */
+	public float[] getStopOffsets() {
+		trimStops();
+		return mStopOffsets;
+	}
+	
+	/**
+	 * Take the stops of another gradient, as a gradient without any stops of its own
+	 * does from the one its xlink:href refers to.
+	 */
+	public void shareStops(Gradient source) {
+		source.trimStops();
+		mStopColors = source.mStopColors;
+		mStopOffsets = source.mStopOffsets;
+		mStopCount = source.mStopCount;
+	}
+	
+	private void trimStops() {
+		if (mStopColors.length != mStopCount) {
+			resizeStops(mStopCount);
+		}
+	}
+	
+	private void resizeStops(int size) {
+		int[] colors = new int[size];
+		float[] offsets = new float[size];
+		System.arraycopy(mStopColors, 0, colors, 0, mStopCount);
+		System.arraycopy(mStopOffsets, 0, offsets, 0, mStopCount);
+		mStopColors = colors;
+		mStopOffsets = offsets;
 	}
-}
\ No newline at end of file
+}
@@ -56,7 +56,11 @@ public class ParsedAttributes {
 	
 	public boolean stretchToRemainderWidth;
 	public boolean stretchToRemainderHeight;
-	public String offset;
+	
+	public float stopOffset;
+	public int stopColor;
+	public float stopOpacity;
+	public boolean hasStopColor;
 	
 	public ArrayList<Integer> rotations;
 	
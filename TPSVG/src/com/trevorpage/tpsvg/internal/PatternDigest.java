@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg.internal;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Accumulates a digest of everything that determines how a &lt;pattern&gt;
+ * element's tile is drawn: the elements and attributes within it, and the
+ * transform and style it inherits, including stroke geometry and opacity.
+ * Two patterns with the same digest draw identical tiles, even if they are
+ * in different documents, which allows the tiles to be shared through the
+ * PatternTileCache.
+ * 
+ * A pattern whose content refers to anything outside itself (such as a
+ * gradient, by url()) can't be identified by its own content, and so is
+ * marked as not shareable.
+ */
+public class PatternDigest {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final PatternFill mPatternFill;
+	private MessageDigest mDigest;
+
+	public PatternDigest(PatternFill patternFill) {
+		mPatternFill = patternFill;
+		try {
+			mDigest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			mDigest = null;
+		}
+	}
+
+	public PatternFill getPatternFill() {
+		return mPatternFill;
+	}
+
+	public void update(String value) {
+		if (mDigest != null) {
+			if (value.indexOf("url(") != -1) {
+				mDigest = null;
+				return;
+			}
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				mDigest.update((byte) (c >> 8));
+				mDigest.update((byte) c);
+			}
+			mDigest.update((byte) 0);
+		}
+	}
+
+	public void update(char[] chars, int start, int length) {
+		if (mDigest != null) {
+			for (int i = start; i < start + length; i++) {
+				mDigest.update((byte) (chars[i] >> 8));
+				mDigest.update((byte) chars[i]);
+			}
+			mDigest.update((byte) 0);
+		}
+	}
+
+	public void update(int value) {
+		if (mDigest != null) {
+			mDigest.update((byte) (value >> 24));
+			mDigest.update((byte) (value >> 16));
+			mDigest.update((byte) (value >> 8));
+			mDigest.update((byte) value);
+		}
+	}
+
+	public void update(float value) {
+		update(Float.floatToIntBits(value));
+	}
+
+	/**
+	 * Mark the pattern as not shareable between documents.
+	 */
+	public void setNotShareable() {
+		mDigest = null;
+	}
+
+	/**
+	 * @return The digest as a hex string, or null if the pattern isn't
+	 * shareable.
+	 */
+	public String finish() {
+		if (mDigest == null) {
+			return null;
+		}
+		byte[] bytes = mDigest.digest();
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		mDigest = null;
+		return new String(hex);
+	}
+}
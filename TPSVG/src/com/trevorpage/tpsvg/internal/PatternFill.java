@@ -16,9 +16,13 @@
 
 package com.trevorpage.tpsvg.internal;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import com.trevorpage.tpsvg.SVGParserRenderer;
 import com.trevorpage.tpsvg.SVGPatternShader;
 
+import android.graphics.Bitmap;
 import android.graphics.Shader;
 
 /**
@@ -29,18 +33,51 @@ import android.graphics.Shader;
  * because only at that point can the parsed data be used to render the pattern tile. 
  * Similarly, if the pattern uses a xlink:href to another pattern, the href should be resolved
  * to a linked pattern after SVG parsing in case of forward references. 
+ * Shaders are created lazily when the pattern is first drawn, with the tile rendered at the
+ * scale the pattern is drawn at. Scales are grouped into buckets half an octave apart, and
+ * a shader is kept for each of the most recently used few buckets. Where the pattern's content
+ * is self-contained, its tile bitmaps are instead shared with every other document through the
+ * process-wide PatternTileCache, keyed by a digest of that content. The shader made for a
+ * shared tile is kept, and is checked against the cache only when the cache's generation
+ * has changed; it's replaced, and the old tile released, once the cache has dropped that tile.
  */
 public class PatternFill {
 
+	/** Number of scale buckets for which a shader is kept. */
+	private static final int MAX_CACHED_SCALES = 3;
+	/** Limits to the scale a tile is rendered at. */
+	private static final int MIN_SCALE_BUCKET = -6;
+	private static final int MAX_SCALE_BUCKET = 8;
+	/** Limit to the width or height of a tile bitmap, in pixels. */
+	private static final float MAX_TILE_SIZE = 1024;
+
 	private String mSubtreeId;
-	private SVGPatternShader mShader;
 	private float x;
 	private float y;
 	private float width;
 	private float height;
+	private String mContentKey;
+	// The cache keys of the shared tiles, made once per scale bucket.
+	private final String[] mTileKeys = new String[MAX_SCALE_BUCKET - MIN_SCALE_BUCKET + 1];
+	// The shaders made for the shared tiles, and the PatternTileCache generation at which
+	// they were last known to be current.
+	private final SVGPatternShader[] mSharedShaders = new SVGPatternShader[mTileKeys.length];
+	private int mSharedGeneration;
 	private String mXLinkReferenceId;
 	private PatternFill mXLinkReferencePatternFill;
 	
+	private final LinkedHashMap<Integer, SVGPatternShader> mShaders =
+			new LinkedHashMap<Integer, SVGPatternShader>(MAX_CACHED_SCALES + 1, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, SVGPatternShader> eldest) {
+			return size() > MAX_CACHED_SCALES;
+		}
+	};
+	private int mLastBucket;
+	private SVGPatternShader mLastShader;
+	
 	/**
 	 * Where the pattern is defined as a series of vector paths within the SVG file,
 	 * set the ID string of the element that contains all the vector data. This is the 
@@ -51,6 +88,28 @@ public class PatternFill {
 		mSubtreeId = subtreeId;
 	}
 	
+	/**
+	 * Set the digest of the pattern's content, which allows its tiles to be shared
+	 * between documents. See PatternDigest.
+	 * @param contentKey The digest, or null if the tiles can't be shared.
+	 */
+	public void setContentKey(String contentKey) {
+		mContentKey = contentKey;
+	}
+	
+	/**
+	 * @return The size of the tile bitmaps held by this pattern, in bytes. Shared tiles,
+	 * which are held by the PatternTileCache, aren't included.
+	 */
+	public int getBitmapBytes() {
+		int bytes = 0;
+		for (SVGPatternShader shader : mShaders.values()) {
+			Bitmap bitmap = shader.getBitmap();
+			bytes += bitmap.getRowBytes() * bitmap.getHeight();
+		}
+		return bytes;
+	}
+	
 	/**
 	 * Set the actual area that represents the valid pattern tile. 
 	 * @param x
@@ -71,18 +130,94 @@ public class PatternFill {
 	 * on the subtree of the parsed SVG file that represents the pattern tile (assuming 
 	 * it's a vector pattern).
 	 * This method must be called only once parsing of the SVG file has completely finished. 
+	 * @param scale The number of device pixels per document unit that the pattern is to be
+	 * drawn at. 
 	 * @return
 	 */
-	public Shader createPatternShader(SVGParserRenderer svgParserRenderer) {
-		if (mShader == null) {
-			if (mSubtreeId != null) {
-				mShader = new SVGPatternShader(svgParserRenderer, mSubtreeId, x, y, width, height);	
+	public Shader getShader(SVGParserRenderer svgParserRenderer, float scale) {
+		if (mSubtreeId == null) {
+			return mXLinkReferencePatternFill != null ? 
+					mXLinkReferencePatternFill.getShader(svgParserRenderer, scale) : null;
+		}
+		if (width <= 0 || height <= 0) {
+			return null;
+		}
+		
+		int bucket = scaleBucket(scale);
+		if (mContentKey != null) {
+			return getSharedShader(svgParserRenderer, bucket);
+		}
+		if (mLastShader != null && bucket == mLastBucket) {
+			return mLastShader;
+		}
+		SVGPatternShader shader = mShaders.get(bucket);
+		if (shader == null) {
+			shader = new SVGPatternShader(svgParserRenderer, mSubtreeId, x, y, width, height, 
+					bucketScale(bucket));
+			mShaders.put(bucket, shader);
+		}
+		mLastBucket = bucket;
+		mLastShader = shader;
+		return shader;
+	}
+
+	/**
+	 * Obtain a shader for the shared tile of the given scale bucket. While the cache's
+	 * generation is unchanged the shader made last time is returned as it is, so the
+	 * renderer's prepared copy of it stays valid. Otherwise the shaders held are checked
+	 * against the cache, and any whose tile has been dropped are discarded; a missing tile
+	 * is rendered and added to the cache.
+	 */
+	private Shader getSharedShader(SVGParserRenderer svgParserRenderer, int bucket) {
+		int index = bucket - MIN_SCALE_BUCKET;
+		PatternTileCache cache = PatternTileCache.getInstance();
+		// Read before the cache is consulted, so that a tile dropped meanwhile is seen next time.
+		int generation = cache.getGeneration();
+		SVGPatternShader shader = mSharedShaders[index];
+		if (shader != null && generation == mSharedGeneration) {
+			return shader;
+		}
+		for (int i = 0; i < mSharedShaders.length; i++) {
+			if (mSharedShaders[i] != null && !cache.holds(mTileKeys[i], mSharedShaders[i].getBitmap())) {
+				mSharedShaders[i] = null;
+			}
+		}
+		shader = mSharedShaders[index];
+		if (shader == null) {
+			String key = mTileKeys[index];
+			if (key == null) {
+				key = mContentKey + "@" + bucket;
+				mTileKeys[index] = key;
 			}
-			else if (mXLinkReferencePatternFill != null) {
-				mShader = (SVGPatternShader) mXLinkReferencePatternFill.createPatternShader(svgParserRenderer);
+			float tileScale = bucketScale(bucket);
+			Bitmap tile = cache.get(key);
+			if (tile == null) {
+				tile = SVGPatternShader.renderTile(svgParserRenderer, mSubtreeId, 
+						x, y, width, height, tileScale);
+				cache.put(key, tile);
 			}
+			shader = new SVGPatternShader(tile, tileScale);
+			mSharedShaders[index] = shader;
+		}
+		mSharedGeneration = generation;
+		return shader;
+	}
+
+	/**
+	 * Obtain the bucket for a scale. Buckets are half an octave apart, and are limited so that
+	 * a tile is never rendered at less than 1/8 scale nor larger than MAX_TILE_SIZE.
+	 */
+	private int scaleBucket(float scale) {
+		int bucket = (int) Math.ceil(2 * Math.log(Math.max(scale, 1e-3f)) / Math.log(2));
+		bucket = Math.max(MIN_SCALE_BUCKET, Math.min(MAX_SCALE_BUCKET, bucket));
+		while (bucket > MIN_SCALE_BUCKET && Math.max(width, height) * bucketScale(bucket) > MAX_TILE_SIZE) {
+			bucket--;
 		}
-		return mShader;
+		return bucket;
+	}
+	
+	private static float bucketScale(int bucket) {
+		return (float) Math.pow(2, bucket / 2.0);
 	}
 
 	public void setXLinkReferenceId(String xLinkReferenceId) {
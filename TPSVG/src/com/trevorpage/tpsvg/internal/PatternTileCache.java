@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg.internal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+/**
+ * Process-wide cache of rendered pattern tile bitmaps, shared by all parsed
+ * documents. Tiles are keyed by a digest of the content of the pattern they
+ * were rendered from, together with the scale they were rendered at, so the
+ * same pattern appearing in many documents is only held in memory once. The
+ * cache is bounded by the total size of the bitmaps it holds; the least
+ * recently used tiles are dropped first. Every time a tile is dropped or
+ * replaced the cache's generation changes, which lets a document keep the
+ * shader it made for a tile and check that it's still current without a
+ * lookup (see PatternFill). A dropped tile is freed once each document
+ * holding it has next drawn the pattern. Dropped bitmaps are not recycled,
+ * because a draw may still be using them.
+ */
+public class PatternTileCache {
+
+	private static final int DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+	private static final PatternTileCache sInstance = new PatternTileCache();
+
+	private final LinkedHashMap<String, Bitmap> mTiles = new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+	private int mMaxBytes = DEFAULT_MAX_BYTES;
+	private int mBytes = 0;
+	private int mHitCount = 0;
+	private int mMissCount = 0;
+	private volatile int mGeneration = 0;
+
+	public static PatternTileCache getInstance() {
+		return sInstance;
+	}
+
+	private PatternTileCache() {
+	}
+
+	public synchronized Bitmap get(String key) {
+		Bitmap tile = mTiles.get(key);
+		if (tile != null) {
+			mHitCount++;
+		} else {
+			mMissCount++;
+		}
+		return tile;
+	}
+
+	/**
+	 * Whether the given tile is still the one held for the key. Unlike get(),
+	 * this doesn't count towards the hit and miss counts.
+	 */
+	public synchronized boolean holds(String key, Bitmap tile) {
+		return tile != null && mTiles.get(key) == tile;
+	}
+
+	public synchronized void put(String key, Bitmap tile) {
+		Bitmap previous = mTiles.put(key, tile);
+		if (previous != null) {
+			mBytes -= sizeOf(previous);
+			mGeneration++;
+		}
+		mBytes += sizeOf(tile);
+		trimToSize(mMaxBytes);
+	}
+
+	/**
+	 * Set the maximum total size of the tiles held, in bytes.
+	 */
+	public synchronized void setMaxBytes(int maxBytes) {
+		mMaxBytes = maxBytes;
+		trimToSize(maxBytes);
+	}
+
+	public synchronized int getMaxBytes() {
+		return mMaxBytes;
+	}
+
+	/**
+	 * @return The total size of the tiles held, in bytes.
+	 */
+	public synchronized int getBytes() {
+		return mBytes;
+	}
+
+	/**
+	 * @return A number that changes whenever a tile is dropped from the cache
+	 * or replaced, so that a tile obtained while it had the same value is
+	 * still held by the cache.
+	 */
+	public int getGeneration() {
+		return mGeneration;
+	}
+
+	public synchronized int getTileCount() {
+		return mTiles.size();
+	}
+
+	public synchronized int getHitCount() {
+		return mHitCount;
+	}
+
+	public synchronized int getMissCount() {
+		return mMissCount;
+	}
+
+	public synchronized void clear() {
+		trimToSize(0);
+	}
+
+	private void trimToSize(int maxBytes) {
+		Iterator<Map.Entry<String, Bitmap>> it = mTiles.entrySet().iterator();
+		while (mBytes > maxBytes && it.hasNext()) {
+			mBytes -= sizeOf(it.next().getValue());
+			it.remove();
+			mGeneration++;
+		}
+	}
+
+	private static int sizeOf(Bitmap bitmap) {
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+}
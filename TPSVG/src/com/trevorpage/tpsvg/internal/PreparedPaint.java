@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg.internal;
+
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+
+/**
+ * A private Paint for drawing one particular path with a shader (gradient or
+ * pattern). The Paint holds its own copy of the style's Shader whose local
+ * matrix already includes the path's transform, so the shared Shader is
+ * never modified during rendering. The copy only needs to be prepared again
+ * if the style's Shader is replaced, or if an animation callback changes the
+ * path's animation matrix.
+ */
+public class PreparedPaint {
+
+	private final Paint mPaint = new Paint();
+	private Shader mSource;
+	private Shader mShader;
+	private Matrix mWorkingMatrix;
+	private final Matrix mAnimMatrix = new Matrix();
+	private final Matrix mLocalMatrix = new Matrix();
+
+	/**
+	 * Whether the paint is already prepared for drawing with the given source
+	 * shader and transforms.
+	 */
+	public boolean isPreparedFor(Shader source, Matrix workingMatrix, Matrix animMatrix) {
+		return mShader != null && source == mSource
+				&& workingMatrix == mWorkingMatrix && animMatrix.equals(mAnimMatrix);
+	}
+
+	/**
+	 * @return The private copy of the given source shader, if one has already
+	 * been made, which can be prepared again with a new matrix rather than
+	 * making another copy.
+	 */
+	public Shader getCopyOf(Shader source) {
+		return source == mSource ? mShader : null;
+	}
+
+	/**
+	 * Prepare the paint to draw with a copy of the source shader.
+	 * @param source The shader of the style the path is drawn with.
+	 * @param copy A copy of source that is private to this paint.
+	 * @param workingMatrix The path's transform.
+	 * @param animMatrix Any further transform applied at render time.
+	 */
+	public void prepare(Shader source, Shader copy, Matrix workingMatrix, Matrix animMatrix) {
+		mSource = source;
+		mShader = copy;
+		mWorkingMatrix = workingMatrix;
+		mAnimMatrix.set(animMatrix);
+		source.getLocalMatrix(mLocalMatrix);
+		mLocalMatrix.postConcat(workingMatrix);
+		mLocalMatrix.postConcat(animMatrix);
+		copy.setLocalMatrix(mLocalMatrix);
+	}
+
+	/**
+	 * Copy all properties other than the shader from the style's paint.
+	 */
+	public Paint sync(Paint stylePaint) {
+		mPaint.set(stylePaint);
+		mPaint.setShader(mShader);
+		return mPaint;
+	}
+
+	public Paint getPaint() {
+		return mPaint;
+	}
+}
@@ -32,6 +32,10 @@ public class SVGPath extends Path {
 	private boolean mStretchToRemainderWidth;
 	private boolean mStretchToRemainderHeight;
 	protected ArrayList<Integer> mVisibleOnRotations;
+	private PreparedPaint mPreparedFillPaint;
+	private PreparedPaint mPreparedStrokePaint;
+	private String mId;
+	private int mCommandCount;
 	
 	public SVGPath() {
 		super();
@@ -51,6 +55,39 @@ public class SVGPath extends Path {
 		mVisibleOnRotations = null;
 	}
 	
+	/**
+	 * Set the id attribute of the element the path was created from. Unlike the
+	 * custom attributes it isn't copied by addPath() or reset by rewind().
+	 */
+	public void setId(String id) {
+		mId = id;
+	}
+	
+	public String getId() {
+		return mId;
+	}
+	
+	/**
+	 * Set the number of commands the path was built from, for estimating its size.
+	 */
+	public void setCommandCount(int commandCount) {
+		mCommandCount = commandCount;
+	}
+	
+	/**
+	 * @return The number of commands the path was built from, or 0 if not known.
+	 */
+	public int getCommandCount() {
+		return mCommandCount;
+	}
+	
+	/**
+	 * @return The number of private paints that have been created for drawing the path.
+	 */
+	public int getPreparedPaintCount() {
+		return (mPreparedFillPaint != null ? 1 : 0) + (mPreparedStrokePaint != null ? 1 : 0);
+	}
+	
 	public void rewind() {
 		super.rewind();
 		init();
@@ -144,4 +181,24 @@ public class SVGPath extends Path {
 	public boolean getVisibleOnRotation(int rotation) {
 		return mVisibleOnRotations == null ? true : mVisibleOnRotations.contains(rotation);
 	}
+
+	/**
+	 * Obtain the PreparedPaint used for drawing this path with a fill shader.
+	 */
+	public PreparedPaint getPreparedFillPaint() {
+		if (mPreparedFillPaint == null) {
+			mPreparedFillPaint = new PreparedPaint();
+		}
+		return mPreparedFillPaint;
+	}
+
+	/**
+	 * Obtain the PreparedPaint used for drawing this path with a stroke shader.
+	 */
+	public PreparedPaint getPreparedStrokePaint() {
+		if (mPreparedStrokePaint == null) {
+			mPreparedStrokePaint = new PreparedPaint();
+		}
+		return mPreparedStrokePaint;
+	}
 }
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg.internal;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * The measured layout of a single run of text for one Paint: the text size to
+ * draw it at (which differs from the paint's own size when the text is sized
+ * to fit a textLength), per-character advances, total advance and bounds. The
+ * characters themselves are owned by the caller. A layout is kept until it's
+ * invalidated, or a paint property that affects measurement changes, so that
+ * text which doesn't change is only measured once rather than on every frame.
+ */
+public class TextLayout {
+
+	private boolean mValid = false;
+	private Paint mPaint;
+	private float mPaintTextSize;
+	private float mTextScaleX;
+	private Typeface mTypeface;
+	private float mFitWidth;
+
+	private float mTextSize;
+	private float[] mAdvances = new float[0];
+	private float mAdvance;
+	private final Rect mBounds = new Rect();
+
+	/**
+	 * Whether this layout can be used to draw with the given paint. The text
+	 * itself is not compared; the owner of the text calls invalidate() when it
+	 * changes.
+	 * @param paint
+	 * @param fitWidth Width the text must be sized to fit, or zero.
+	 */
+	public boolean isValidFor(Paint paint, float fitWidth) {
+		return mValid && paint == mPaint && fitWidth == mFitWidth
+				&& paint.getTextSize() == mPaintTextSize
+				&& paint.getTextScaleX() == mTextScaleX
+				&& paint.getTypeface() == mTypeface;
+	}
+
+	/**
+	 * Measure the given text with the given paint. The paint is left unchanged.
+	 * @param paint
+	 * @param text
+	 * @param fitWidth If greater than zero, the text size is reduced where
+	 * necessary so the text fits within this width.
+	 */
+	public void layout(Paint paint, CharSequence text, float fitWidth) {
+		int length = text.length();
+		mPaint = paint;
+		mPaintTextSize = paint.getTextSize();
+		mTextScaleX = paint.getTextScaleX();
+		mTypeface = paint.getTypeface();
+		mFitWidth = fitWidth;
+
+		if (mAdvances.length < length) {
+			mAdvances = new float[length];
+		}
+
+		mTextSize = mPaintTextSize;
+		if (fitWidth > 0) {
+			mTextSize = Util.bestFitValueTextSize(paint, fitWidth, text);
+		}
+
+		paint.setTextSize(mTextSize);
+		paint.getTextWidths(text, 0, length, mAdvances);
+		// Only measured when the text or paint changes, so the String made
+		// here isn't made per frame.
+		paint.getTextBounds(text.toString(), 0, length, mBounds);
+		paint.setTextSize(mPaintTextSize);
+		mAdvance = 0;
+		for (int i = 0; i < length; i++) {
+			mAdvance += mAdvances[i];
+		}
+		mValid = true;
+	}
+
+	/**
+	 * @return The size of the arrays held, in bytes.
+	 */
+	public int getArrayBytes() {
+		return mAdvances.length * 4;
+	}
+	
+	public void invalidate() {
+		mValid = false;
+		mPaint = null;
+	}
+
+	/**
+	 * @return The text size the text should be drawn at.
+	 */
+	public float getTextSize() {
+		return mTextSize;
+	}
+
+	/**
+	 * @return The advance of each character. Only as many values as the length
+	 * of the text measured are valid.
+	 */
+	public float[] getAdvances() {
+		return mAdvances;
+	}
+
+	/**
+	 * @return The total advance of the text.
+	 */
+	public float getAdvance() {
+		return mAdvance;
+	}
+
+	/**
+	 * @return The bounds of the text, relative to its origin.
+	 */
+	public Rect getBounds() {
+		return mBounds;
+	}
+}
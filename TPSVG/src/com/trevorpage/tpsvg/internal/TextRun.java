@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg.internal;
+
+import android.graphics.Paint;
+
+import com.trevorpage.tpsvg.ITpsvgCanvas;
+
+/**
+ * A positioned run of glyphs made by merging several consecutive static text
+ * items that share the same style and differ only in translation. The whole
+ * run is drawn with a single Canvas.drawPosText() call, in place of a
+ * save / concat / drawText / restore sequence for each of the items.
+ * Positions are left-aligned origins in the coordinate space of the first
+ * item in the run; any text-anchor alignment has already been applied.
+ */
+public class TextRun {
+
+	private char[] mChars = new char[16];
+	private float[] mPositions = new float[32];
+	private int mLength = 0;
+	private int mItemCount = 0;
+	private boolean mValid = true;
+
+	/**
+	 * Append a text item to the run.
+	 * @param chars Characters of the item.
+	 * @param advances Advance of each character.
+	 * @param length Number of characters.
+	 * @param x Left-aligned origin of the item in the run's coordinate space.
+	 * @param y
+	 */
+	public void add(CharSequence chars, float[] advances, int length, float x, float y) {
+		if (mLength + length > mChars.length) {
+			int capacity = Math.max(mChars.length * 2, mLength + length);
+			char[] newChars = new char[capacity];
+			float[] newPositions = new float[capacity * 2];
+			System.arraycopy(mChars, 0, newChars, 0, mLength);
+			System.arraycopy(mPositions, 0, newPositions, 0, mLength * 2);
+			mChars = newChars;
+			mPositions = newPositions;
+		}
+		for (int i = 0; i < length; i++) {
+			mChars[mLength] = chars.charAt(i);
+			mPositions[mLength * 2] = x;
+			mPositions[mLength * 2 + 1] = y;
+			x += advances[i];
+			mLength++;
+		}
+		mItemCount++;
+	}
+
+	/**
+	 * @return The size of the arrays held, in bytes.
+	 */
+	public int getArrayBytes() {
+		return mChars.length * 2 + mPositions.length * 4;
+	}
+	
+	public int getItemCount() {
+		return mItemCount;
+	}
+
+	/**
+	 * A run becomes invalid if the text of any of its items is changed, in
+	 * which case the items should be drawn individually.
+	 */
+	public boolean isValid() {
+		return mValid;
+	}
+
+	public void invalidate() {
+		mValid = false;
+	}
+
+	/**
+	 * Draw the run. The paint's text alignment is temporarily set to LEFT
+	 * because the positions are already aligned.
+	 */
+	public void draw(ITpsvgCanvas canvas, Paint paint) {
+		Paint.Align align = paint.getTextAlign();
+		if (align != Paint.Align.LEFT) {
+			paint.setTextAlign(Paint.Align.LEFT);
+		}
+		canvas.drawPosText(mChars, 0, mLength, mPositions, paint);
+		if (align != Paint.Align.LEFT) {
+			paint.setTextAlign(align);
+		}
+	}
+}
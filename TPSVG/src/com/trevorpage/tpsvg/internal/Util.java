@@ -20,13 +20,28 @@ import android.graphics.Paint;
 
 public class Util {
 
-    public static float bestFitValueTextSize(float width, float height, String string) {
-        Paint paint = new Paint();
-        paint.setTextSize(height);
-        while (paint.measureText(string) > width) {
-            height -= 0.5f;
-            paint.setTextSize(height);
+    /**
+     * Obtain the largest text size, no larger than the paint's current text
+     * size, at which the given text fits within the given width. Advance width
+     * scales linearly with text size, so the fitted size comes from a single
+     * measurement; a second measurement at the fitted size corrects for any
+     * hinting or rounding that makes the scaled text slightly wider. The
+     * paint's text size is left as it was.
+     */
+    public static float bestFitValueTextSize(Paint paint, float width, CharSequence text) {
+        int length = text.length();
+        float size = paint.getTextSize();
+        float measured = paint.measureText(text, 0, length);
+        if (measured <= width || measured <= 0) {
+            return size;
         }
-        return height;
+        float fitted = size * width / measured;
+        paint.setTextSize(fitted);
+        measured = paint.measureText(text, 0, length);
+        if (measured > width) {
+            fitted *= width / measured;
+        }
+        paint.setTextSize(size);
+        return fitted;
     }	
 }
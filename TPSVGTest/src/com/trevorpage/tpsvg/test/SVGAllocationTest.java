@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.trevorpage.tpsvg.test;
+
+import java.io.ByteArrayInputStream;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import com.trevorpage.tpsvg.SVGParserRenderer;
+
+/**
+ * Checks that drawing the documents in the test corpus allocates nothing per
+ * frame once warmed up, so that allocation creeping back into the evaluator
+ * is caught.
+ */
+public class SVGAllocationTest extends InstrumentationTestCase {
+
+	/**
+	 * The number of objects drawing one document may allocate per frame, once
+	 * warmed up.
+	 */
+	private static final int MAX_OBJECTS_PER_FRAME = 0;
+
+	public void testCorpus() throws Exception {
+		Context context = getInstrumentation().getContext();
+		SVGAllocationTracker tracker = new SVGAllocationTracker();
+		for (String name : TestCorpus.getNames(context.getAssets())) {
+			tracker.addDocument(name, new SVGParserRenderer(context,
+					new ByteArrayInputStream(TestCorpus.read(
+							context.getAssets(), name))));
+		}
+		for (SVGAllocationTracker.Result result : tracker.runAndLog()) {
+			assertTrue(result.toString(), result.frames > 0);
+			assertFalse(result.toString(),
+					result.exceeds(MAX_OBJECTS_PER_FRAME));
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.util.Log;
+
+import com.trevorpage.tpsvg.SVGParserRenderer;
+
+/**
+ * Measures the memory allocated on the calling thread by each frame of
+ * paintImage(), so that allocation creeping back into the render loop can be
+ * caught by a test. Documents are drawn repeatedly to a Bitmap; the first
+ * frames warm up caches such as pattern tiles and prepared paints, and the
+ * remaining frames are measured. SVGAllocationTest runs it over the test
+ * corpus:
+ * 
+ * <pre>
+ * SVGAllocationTracker tracker = new SVGAllocationTracker();
+ * tracker.addDocument(&quot;map&quot;, image);
+ * for (SVGAllocationTracker.Result result : tracker.runAndLog()) {
+ * 	assertFalse(result.toString(), result.exceeds(0));
+ * }
+ * </pre>
+ * 
+ * Allocation is counted with android.os.Debug, which counts only Java heap
+ * allocation. The native memory behind a Path, Shader, Bitmap or Matrix is
+ * only ever made along with its Java object, though, so checking the object
+ * count also catches those.
+ */
+public class SVGAllocationTracker {
+
+	private static final String LOGTAG = SVGAllocationTracker.class
+			.getSimpleName();
+
+	private final ArrayList<String> mNames = new ArrayList<String>();
+	private final ArrayList<SVGParserRenderer> mImages = new ArrayList<SVGParserRenderer>();
+	private int mWarmupFrames = 10;
+	private int mMeasureFrames = 50;
+	private int mRenderWidth = 512;
+	private int mRenderHeight = 512;
+
+	/**
+	 * The steady-state allocation of drawing one document.
+	 */
+	public static class Result {
+		public final String document;
+		public final int frames;
+		public final long bytes;
+		public final long objects;
+
+		public Result(String document, int frames, long bytes, long objects) {
+			this.document = document;
+			this.frames = frames;
+			this.bytes = bytes;
+			this.objects = objects;
+		}
+
+		public double getBytesPerFrame() {
+			return frames == 0 ? 0 : (double) bytes / frames;
+		}
+
+		public double getObjectsPerFrame() {
+			return frames == 0 ? 0 : (double) objects / frames;
+		}
+
+		/**
+		 * @return true if more than maxObjectsPerFrame objects were allocated
+		 *         in each frame measured, in total.
+		 */
+		public boolean exceeds(int maxObjectsPerFrame) {
+			return objects > (long) maxObjectsPerFrame * frames;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%s: %.1f bytes/frame, %.1f objects/frame (%d frames)",
+					document, getBytesPerFrame(), getObjectsPerFrame(), frames);
+		}
+	}
+
+	/**
+	 * Add an already-parsed document to be measured.
+	 */
+	public void addDocument(String name, SVGParserRenderer image) {
+		mNames.add(name);
+		mImages.add(image);
+	}
+
+	public void setWarmupFrames(int warmupFrames) {
+		mWarmupFrames = warmupFrames;
+	}
+
+	public void setMeasureFrames(int measureFrames) {
+		mMeasureFrames = measureFrames;
+	}
+
+	/**
+	 * Set the size of the Bitmap that documents are drawn to.
+	 */
+	public void setRenderSize(int width, int height) {
+		mRenderWidth = width;
+		mRenderHeight = height;
+	}
+
+	/**
+	 * Measure every document.
+	 */
+	public List<Result> run() {
+		ArrayList<Result> results = new ArrayList<Result>();
+		Bitmap bitmap = Bitmap.createBitmap(mRenderWidth, mRenderHeight,
+				Bitmap.Config.ARGB_8888);
+		try {
+			Canvas canvas = new Canvas(bitmap);
+			for (int i = 0; i < mImages.size(); i++) {
+				results.add(measure(mNames.get(i), mImages.get(i), canvas));
+			}
+		} finally {
+			bitmap.recycle();
+		}
+		return results;
+	}
+
+	/**
+	 * Measure every document, and log the results.
+	 */
+	public List<Result> runAndLog() {
+		List<Result> results = run();
+		for (Result result : results) {
+			Log.i(LOGTAG, result.toString());
+		}
+		return results;
+	}
+
+	private Result measure(String name, SVGParserRenderer image, Canvas canvas) {
+		for (int i = 0; i < mWarmupFrames; i++) {
+			drawFrame(image, canvas);
+		}
+		System.gc();
+
+		Debug.startAllocCounting();
+		try {
+			Debug.resetThreadAllocSize();
+			Debug.resetThreadAllocCount();
+			for (int i = 0; i < mMeasureFrames; i++) {
+				drawFrame(image, canvas);
+			}
+			long bytes = Debug.getThreadAllocSize();
+			long objects = Debug.getThreadAllocCount();
+			return new Result(name, mMeasureFrames, bytes, objects);
+		} finally {
+			Debug.stopAllocCounting();
+		}
+	}
+
+	private void drawFrame(SVGParserRenderer image, Canvas canvas) {
+		image.paintImage(canvas, null, mRenderWidth, mRenderHeight, null,
+				false, 0);
+	}
+}
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.util.Log;
+
+import com.trevorpage.tpsvg.SVGParserRenderer;
+
+/**
+ * Measures the throughput of the parse and render stages over a corpus of SVG
+ * documents, so that regressions can be caught and the effect of changes to
+ * the parser and evaluator can be shown with numbers. It runs on a device or
+ * emulator, as the library draws with android.graphics, and is driven by
+ * SVGBenchmarkTest over the corpus in the test project's assets:
+ * 
+ * <pre>
+ * SVGBenchmark benchmark = new SVGBenchmark(context);
+ * benchmark.addCorpus(context.getAssets());
+ * for (SVGBenchmark.Result result : benchmark.run()) {
+ * 	Log.i(TAG, result.toString());
+ * }
+ * </pre>
+ * 
+ * Each document is measured in three stages: parsing it with
+ * parseImageFile(), parsing a document made of only its path data, which
+ * shows how much of the parse is spent on path data, and drawing it with
+ * paintImage() to a Bitmap of the configured size. Each stage is first run
+ * for a warm-up period, then repeatedly for the measurement period, and the
+ * result is reported in operations per second.
+ */
+public class SVGBenchmark {
+
+	private static final String LOGTAG = SVGBenchmark.class.getSimpleName();
+
+	public static final String STAGE_PARSE = "parse";
+	public static final String STAGE_PATHS = "paths";
+	public static final String STAGE_RENDER = "render";
+
+	private static final String ENCODING = "UTF-8";
+	private static final Pattern PATH_DATA_PATTERN = Pattern
+			.compile("\\sd\\s*=\\s*\"([^\"]*)\"");
+
+	private final Context mContext;
+	private final ArrayList<String> mNames = new ArrayList<String>();
+	private final ArrayList<byte[]> mDocuments = new ArrayList<byte[]>();
+	private long mWarmupMillis = 1000;
+	private long mMeasureMillis = 3000;
+	private int mRenderWidth = 512;
+	private int mRenderHeight = 512;
+
+	/**
+	 * The throughput of one stage for one document.
+	 */
+	public static class Result {
+		public final String document;
+		public final String stage;
+		public final int operations;
+		public final long nanos;
+
+		public Result(String document, String stage, int operations, long nanos) {
+			this.document = document;
+			this.stage = stage;
+			this.operations = operations;
+			this.nanos = nanos;
+		}
+
+		public double getOpsPerSecond() {
+			return nanos == 0 ? 0 : operations * 1e9 / nanos;
+		}
+
+		public double getMicrosPerOp() {
+			return operations == 0 ? 0 : nanos / 1e3 / operations;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %s: %.1f ops/s (%.1f us/op, %d ops)",
+					document, stage, getOpsPerSecond(), getMicrosPerOp(),
+					operations);
+		}
+	}
+
+	public SVGBenchmark(Context context) {
+		mContext = context;
+	}
+
+	/**
+	 * Add a document to the corpus. The stream is read fully and closed, so
+	 * that reading the document isn't part of what's measured.
+	 */
+	public void addDocument(String name, InputStream stream) throws IOException {
+		addDocument(name, TestCorpus.readFully(stream));
+	}
+
+	public void addDocument(String name, byte[] document) {
+		mNames.add(name);
+		mDocuments.add(document);
+	}
+
+	/**
+	 * Add every document in the test corpus.
+	 */
+	public void addCorpus(AssetManager assets) throws IOException {
+		for (String name : TestCorpus.getNames(assets)) {
+			addDocument(name, TestCorpus.read(assets, name));
+		}
+	}
+
+	public void setWarmupMillis(long warmupMillis) {
+		mWarmupMillis = warmupMillis;
+	}
+
+	public void setMeasureMillis(long measureMillis) {
+		mMeasureMillis = measureMillis;
+	}
+
+	/**
+	 * Set the size of the Bitmap that documents are drawn to in the render
+	 * stage.
+	 */
+	public void setRenderSize(int width, int height) {
+		mRenderWidth = width;
+		mRenderHeight = height;
+	}
+
+	/**
+	 * Run every stage for every document in the corpus.
+	 */
+	public List<Result> run() {
+		ArrayList<Result> results = new ArrayList<Result>();
+		for (int i = 0; i < mDocuments.size(); i++) {
+			results.add(measure(new ParseStage(mContext, mDocuments.get(i)),
+					mNames.get(i), STAGE_PARSE));
+			results.add(measure(new ParseStage(mContext,
+					pathsOnly(mDocuments.get(i))), mNames.get(i), STAGE_PATHS));
+			results.add(measure(new RenderStage(mContext, mDocuments.get(i),
+					mRenderWidth, mRenderHeight), mNames.get(i), STAGE_RENDER));
+		}
+		return results;
+	}
+
+	/**
+	 * Run every stage for every document in the corpus, and log the results.
+	 */
+	public List<Result> runAndLog() {
+		List<Result> results = run();
+		for (Result result : results) {
+			Log.i(LOGTAG, result.toString());
+		}
+		return results;
+	}
+
+	/**
+	 * Make a document holding only the path data of the given one, as a
+	 * sequence of unstyled path elements.
+	 */
+	private static byte[] pathsOnly(byte[] document) {
+		try {
+			StringBuilder paths = new StringBuilder(
+					"<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"100\" height=\"100\">");
+			Matcher matcher = PATH_DATA_PATTERN.matcher(new String(document,
+					ENCODING));
+			while (matcher.find()) {
+				paths.append("<path d=\"").append(matcher.group(1))
+						.append("\"/>");
+			}
+			paths.append("</svg>");
+			return paths.toString().getBytes(ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			// Every platform supports UTF-8.
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Result measure(Stage stage, String document, String stageName) {
+		long end = System.nanoTime() + mWarmupMillis * 1000000L;
+		while (System.nanoTime() < end) {
+			stage.run();
+		}
+		System.gc();
+
+		int operations = 0;
+		long start = System.nanoTime();
+		end = start + mMeasureMillis * 1000000L;
+		long now;
+		do {
+			stage.run();
+			operations++;
+			now = System.nanoTime();
+		} while (now < end);
+		return new Result(document, stageName, operations, now - start);
+	}
+
+	private interface Stage {
+		void run();
+	}
+
+	private static class ParseStage implements Stage {
+		private final Context mContext;
+		private final byte[] mDocument;
+
+		ParseStage(Context context, byte[] document) {
+			mContext = context;
+			mDocument = document;
+		}
+
+		public void run() {
+			new SVGParserRenderer(mContext, new ByteArrayInputStream(mDocument));
+		}
+	}
+
+	private static class RenderStage implements Stage {
+		private final SVGParserRenderer mImage;
+		private final Bitmap mBitmap;
+		private final Canvas mCanvas;
+
+		RenderStage(Context context, byte[] document, int width, int height) {
+			mImage = new SVGParserRenderer(context, new ByteArrayInputStream(
+					document));
+			mBitmap = Bitmap.createBitmap(width, height,
+					Bitmap.Config.ARGB_8888);
+			mCanvas = new Canvas(mBitmap);
+		}
+
+		public void run() {
+			mBitmap.eraseColor(0);
+			mImage.paintImage(mCanvas, null, mBitmap.getWidth(),
+					mBitmap.getHeight(), null);
+		}
+	}
+}
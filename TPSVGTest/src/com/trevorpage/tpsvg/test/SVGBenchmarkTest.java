@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.trevorpage.tpsvg.test;
+
+import java.util.List;
+
+import android.test.InstrumentationTestCase;
+
+/**
+ * Runs SVGBenchmark over the test corpus and logs the results. The timings
+ * aren't asserted, as they depend on the device; the test checks that every
+ * stage of every document ran.
+ */
+public class SVGBenchmarkTest extends InstrumentationTestCase {
+
+	public void testCorpus() throws Exception {
+		SVGBenchmark benchmark = new SVGBenchmark(getInstrumentation()
+				.getContext());
+		benchmark.addCorpus(getInstrumentation().getContext().getAssets());
+		benchmark.setWarmupMillis(500);
+		benchmark.setMeasureMillis(1000);
+		List<SVGBenchmark.Result> results = benchmark.runAndLog();
+
+		int documents = TestCorpus.getNames(
+				getInstrumentation().getContext().getAssets()).size();
+		assertTrue("The corpus is empty", documents > 0);
+		assertEquals(documents * 3, results.size());
+		for (SVGBenchmark.Result result : results) {
+			assertTrue(result.toString(), result.operations > 0);
+		}
+	}
+}
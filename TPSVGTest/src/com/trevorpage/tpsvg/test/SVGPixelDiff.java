@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.trevorpage.tpsvg.test;
+
+import android.graphics.Bitmap;
+
+/**
+ * Compares two renders pixel by pixel, allowing for small differences such as
+ * those from anti-aliasing.
+ */
+public class SVGPixelDiff {
+
+	private static final int DIFF_COLOUR = 0xffff00ff;
+	private static final int SAME_COLOUR = 0x20000000;
+
+	/**
+	 * The result of a comparison.
+	 */
+	public static class Result {
+		public final int width;
+		public final int height;
+		/** True if the images aren't the same size, and weren't compared. */
+		public final boolean sizeMismatch;
+		/** The number of pixels that differ by more than the tolerance. */
+		public final int differentPixels;
+		/** The largest difference found in any channel of any pixel. */
+		public final int maxChannelDelta;
+		/**
+		 * An image with differing pixels in magenta, if one was asked for
+		 * and the images are the same size.
+		 */
+		public final Bitmap diffImage;
+
+		Result(int width, int height, boolean sizeMismatch,
+				int differentPixels, int maxChannelDelta, Bitmap diffImage) {
+			this.width = width;
+			this.height = height;
+			this.sizeMismatch = sizeMismatch;
+			this.differentPixels = differentPixels;
+			this.maxChannelDelta = maxChannelDelta;
+			this.diffImage = diffImage;
+		}
+
+		public float getDifferentFraction() {
+			return sizeMismatch ? 1 : (float) differentPixels
+					/ (width * height);
+		}
+
+		/**
+		 * @return True if the images are the same size and no more than the
+		 *         given fraction of pixels differ.
+		 */
+		public boolean passes(float maxDifferentFraction) {
+			return !sizeMismatch
+					&& getDifferentFraction() <= maxDifferentFraction;
+		}
+
+		@Override
+		public String toString() {
+			if (sizeMismatch) {
+				return "size mismatch";
+			}
+			return differentPixels + " of " + (width * height)
+					+ " pixels differ, max channel delta " + maxChannelDelta;
+		}
+	}
+
+	private SVGPixelDiff() {
+	}
+
+	/**
+	 * Compare two images.
+	 * 
+	 * @param channelTolerance
+	 *            The largest difference in any of a pixel's four channels for
+	 *            which the pixel is still considered the same.
+	 * @param makeDiffImage
+	 *            Whether to create an image showing the differing pixels.
+	 */
+	public static Result compare(Bitmap expected, Bitmap actual,
+			int channelTolerance, boolean makeDiffImage) {
+		int width = expected.getWidth();
+		int height = expected.getHeight();
+		if (actual.getWidth() != width || actual.getHeight() != height) {
+			return new Result(width, height, true, 0, 0, null);
+		}
+
+		Bitmap diffImage = makeDiffImage ? Bitmap.createBitmap(width, height,
+				Bitmap.Config.ARGB_8888) : null;
+		int[] expectedRow = new int[width];
+		int[] actualRow = new int[width];
+		int[] diffRow = makeDiffImage ? new int[width] : null;
+		int differentPixels = 0;
+		int maxChannelDelta = 0;
+
+		for (int y = 0; y < height; y++) {
+			expected.getPixels(expectedRow, 0, width, 0, y, width, 1);
+			actual.getPixels(actualRow, 0, width, 0, y, width, 1);
+			for (int x = 0; x < width; x++) {
+				int delta = maxChannelDelta(expectedRow[x], actualRow[x]);
+				if (delta > maxChannelDelta) {
+					maxChannelDelta = delta;
+				}
+				boolean different = delta > channelTolerance;
+				if (different) {
+					differentPixels++;
+				}
+				if (diffRow != null) {
+					diffRow[x] = different ? DIFF_COLOUR : SAME_COLOUR;
+				}
+			}
+			if (diffImage != null) {
+				diffImage.setPixels(diffRow, 0, width, 0, y, width, 1);
+			}
+		}
+		return new Result(width, height, false, differentPixels,
+				maxChannelDelta, diffImage);
+	}
+
+	private static int maxChannelDelta(int a, int b) {
+		int max = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			int delta = Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff));
+			if (delta > max) {
+				max = delta;
+			}
+		}
+		return max;
+	}
+}
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.trevorpage.tpsvg.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.trevorpage.tpsvg.SVGParserRenderer;
+import com.trevorpage.tpsvg.SVGRasterizer;
+import com.trevorpage.tpsvg.SVGRecordingCanvas;
+
+/**
+ * Checks the test corpus against golden renders, so that changes to the
+ * parser and evaluator can be shown not to alter what's drawn.
+ * 
+ * Every document in the corpus (see TestCorpus) is rendered at the
+ * configured size and compared with golden/NAME.png in the test project's
+ * assets, within the configured tolerance. The drawing operations are also
+ * recorded with an SVGRecordingCanvas and compared with golden/NAME.ops.txt,
+ * which catches changes that are too small to show up in the pixels, such as
+ * a stroke width that changed by a fraction. writeGoldens() creates both
+ * files from the current renderer, to be copied off the device into the
+ * assets; until a document has goldens, it's reported as skipped rather than
+ * failed. When an output directory is set, the actual render and an image of
+ * the differing pixels are written there for each document that fails.
+ */
+public class SVGRegressionRunner {
+
+	public static final String GOLDEN_DIR = "golden";
+	private static final String PNG_SUFFIX = ".png";
+	private static final String OPS_SUFFIX = ".ops.txt";
+	private static final String ENCODING = "UTF-8";
+
+	private final Context mContext;
+	private final AssetManager mAssets;
+	private File mOutputDirectory;
+	private int mWidth = 256;
+	private int mHeight = 256;
+	private int mChannelTolerance = 8;
+	private float mMaxDifferentFraction = 0.001f;
+
+	/**
+	 * The outcome for one document.
+	 */
+	public static class Outcome {
+		public final String name;
+		/** The pixel comparison, or null if there's no golden render. */
+		public SVGPixelDiff.Result pixels;
+		/**
+		 * Whether the recorded operations match, or null if there's no golden
+		 * recording.
+		 */
+		public Boolean operationsMatch;
+		/** The reason the document couldn't be checked, or null. */
+		public String error;
+		private boolean mPassed;
+		private boolean mSkipped;
+
+		Outcome(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return false only if the document differs from its goldens or
+		 *         couldn't be checked. A skipped document passes.
+		 */
+		public boolean passed() {
+			return mPassed;
+		}
+
+		/**
+		 * @return true if the document has no goldens to check against.
+		 */
+		public boolean isSkipped() {
+			return mSkipped;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": "
+					+ (mSkipped ? "skipped, no golden" : mPassed ? "pass" : "FAIL")
+					+ (error != null ? " " + error : "")
+					+ (pixels != null ? " (" + pixels + ")" : "")
+					+ (operationsMatch != null && !operationsMatch ? " (operations differ)"
+							: "");
+		}
+	}
+
+	/**
+	 * @param context
+	 *            Context used for loading any fonts the documents use.
+	 * @param assets
+	 *            The test project's assets, holding the corpus and goldens.
+	 */
+	public SVGRegressionRunner(Context context, AssetManager assets) {
+		mContext = context;
+		mAssets = assets;
+	}
+
+	public void setRenderSize(int width, int height) {
+		mWidth = width;
+		mHeight = height;
+	}
+
+	/**
+	 * Set the tolerance of the pixel comparison.
+	 * 
+	 * @param channelTolerance
+	 *            The largest difference in any channel of a pixel for which
+	 *            it's considered unchanged.
+	 * @param maxDifferentFraction
+	 *            The largest fraction of pixels that may change.
+	 */
+	public void setTolerance(int channelTolerance, float maxDifferentFraction) {
+		mChannelTolerance = channelTolerance;
+		mMaxDifferentFraction = maxDifferentFraction;
+	}
+
+	/**
+	 * Set a directory to write the actual render and diff image to for each
+	 * document that fails.
+	 */
+	public void setOutputDirectory(File outputDirectory) {
+		mOutputDirectory = outputDirectory;
+	}
+
+	/**
+	 * Check every document in the corpus against its goldens.
+	 */
+	public List<Outcome> run() throws IOException {
+		ArrayList<Outcome> outcomes = new ArrayList<Outcome>();
+		for (String name : TestCorpus.getNames(mAssets)) {
+			outcomes.add(check(name));
+		}
+		return outcomes;
+	}
+
+	/**
+	 * Render every document in the corpus with the current renderer and write
+	 * the results as goldens to the given directory.
+	 */
+	public void writeGoldens(File directory) throws IOException {
+		for (String name : TestCorpus.getNames(mAssets)) {
+			writeGolden(name, directory);
+		}
+	}
+
+	/**
+	 * Render a document in the corpus with the current renderer and write the
+	 * results as its goldens to the given directory.
+	 */
+	public void writeGolden(String name, File directory) throws IOException {
+		directory.mkdirs();
+		SVGParserRenderer image = parse(name);
+		Bitmap bitmap = SVGRasterizer.rasterize(image, mWidth, mHeight, null);
+		try {
+			writePng(bitmap, new File(directory, name + PNG_SUFFIX));
+		} finally {
+			bitmap.recycle();
+		}
+		OutputStream out = new FileOutputStream(new File(directory, name
+				+ OPS_SUFFIX));
+		try {
+			out.write(record(image).getBytes(ENCODING));
+		} finally {
+			out.close();
+		}
+	}
+
+	private Outcome check(String name) {
+		Outcome outcome = new Outcome(name);
+		Bitmap actual = null;
+		Bitmap expected = null;
+		try {
+			SVGParserRenderer image = parse(name);
+			boolean passed = true;
+
+			byte[] goldenPng = readGolden(name + PNG_SUFFIX);
+			if (goldenPng != null) {
+				expected = BitmapFactory.decodeByteArray(goldenPng, 0,
+						goldenPng.length);
+				actual = SVGRasterizer.rasterize(image, mWidth, mHeight, null);
+				outcome.pixels = SVGPixelDiff.compare(expected, actual,
+						mChannelTolerance, mOutputDirectory != null);
+				passed = outcome.pixels.passes(mMaxDifferentFraction);
+				if (!passed && mOutputDirectory != null) {
+					mOutputDirectory.mkdirs();
+					writePng(actual, new File(mOutputDirectory, name
+							+ ".actual.png"));
+					if (outcome.pixels.diffImage != null) {
+						writePng(outcome.pixels.diffImage, new File(
+								mOutputDirectory, name + ".diff.png"));
+					}
+				}
+			}
+
+			byte[] goldenOps = readGolden(name + OPS_SUFFIX);
+			if (goldenOps != null) {
+				outcome.operationsMatch = new String(goldenOps, ENCODING)
+						.equals(record(image));
+				passed &= outcome.operationsMatch;
+			}
+
+			outcome.mSkipped = outcome.pixels == null
+					&& outcome.operationsMatch == null;
+			outcome.mPassed = passed;
+		} catch (Exception e) {
+			outcome.error = e.toString();
+		} finally {
+			if (actual != null) {
+				actual.recycle();
+			}
+			if (expected != null) {
+				expected.recycle();
+			}
+			if (outcome.pixels != null && outcome.pixels.diffImage != null) {
+				outcome.pixels.diffImage.recycle();
+			}
+		}
+		return outcome;
+	}
+
+	private SVGParserRenderer parse(String name) throws IOException {
+		return new SVGParserRenderer(mContext, new ByteArrayInputStream(
+				TestCorpus.read(mAssets, name)));
+	}
+
+	/**
+	 * Record the drawing operations for a render at the configured size.
+	 */
+	private String record(SVGParserRenderer image) {
+		SVGRecordingCanvas recording = new SVGRecordingCanvas();
+		image.paintImage(recording, null, mWidth, mHeight, null, false, 0);
+		return recording.describe();
+	}
+
+	/**
+	 * @return The contents of a golden file, or null if there isn't one.
+	 */
+	private byte[] readGolden(String file) throws IOException {
+		InputStream stream;
+		try {
+			stream = mAssets.open(GOLDEN_DIR + "/" + file);
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+		return TestCorpus.readFully(stream);
+	}
+
+	private static void writePng(Bitmap bitmap, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.trevorpage.tpsvg.test;
+
+import java.io.File;
+import java.util.List;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+/**
+ * Checks every document in the test corpus against its goldens with
+ * SVGRegressionRunner, failing only if a document differs from its goldens
+ * or can't be checked. A document that has no goldens yet is skipped, and its
+ * current render is written to the test app's files directory, under
+ * golden/, from where it can be pulled with adb, checked by eye and committed
+ * to the test project's assets/golden directory. The renders and diff
+ * images of documents that fail are written under regression/.
+ */
+public class SVGRegressionTest extends InstrumentationTestCase {
+
+	private static final String LOGTAG = SVGRegressionTest.class
+			.getSimpleName();
+
+	public void testCorpus() throws Exception {
+		Context context = getInstrumentation().getContext();
+		SVGRegressionRunner runner = new SVGRegressionRunner(context,
+				context.getAssets());
+		runner.setOutputDirectory(new File(context.getFilesDir(),
+				"regression"));
+		List<SVGRegressionRunner.Outcome> outcomes = runner.run();
+		assertTrue("The corpus is empty", outcomes.size() > 0);
+
+		StringBuilder failures = new StringBuilder();
+		File goldenDirectory = new File(context.getFilesDir(),
+				SVGRegressionRunner.GOLDEN_DIR);
+		for (SVGRegressionRunner.Outcome outcome : outcomes) {
+			if (outcome.isSkipped()) {
+				runner.writeGolden(outcome.name, goldenDirectory);
+				Log.i(LOGTAG, outcome + ", render written to "
+						+ goldenDirectory);
+			} else if (!outcome.passed()) {
+				failures.append('\n').append(outcome);
+			}
+		}
+		if (failures.length() > 0) {
+			fail("Documents differ from their goldens:" + failures);
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.trevorpage.tpsvg.test;
+
+import java.io.ByteArrayInputStream;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.test.InstrumentationTestCase;
+import android.view.View.MeasureSpec;
+
+import com.trevorpage.tpsvg.ITpsvgStateController;
+import com.trevorpage.tpsvg.ITpsvgVersionedController;
+import com.trevorpage.tpsvg.SVGElementState;
+import com.trevorpage.tpsvg.SVGParserRenderer;
+import com.trevorpage.tpsvg.SVGParserRenderer.Textstring;
+import com.trevorpage.tpsvg.SVGStatePublisher;
+import com.trevorpage.tpsvg.SVGView;
+
+/**
+ * Checks the order in which SVGStatePublisher requests frames, and that a
+ * frame SVGView serves from its bitmap, without acquiring the state, still
+ * lets the next publish request a frame.
+ */
+public class SVGStatePublisherTest extends InstrumentationTestCase {
+
+	private static final String DOCUMENT = "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"100\" height=\"100\">"
+			+ "<rect id=\"_animBar\" x=\"0\" y=\"0\" width=\"50\" height=\"50\" style=\"fill:#ff0000\"/>"
+			+ "</svg>";
+	private static final int SIZE = 100;
+
+	private SVGStatePublisher mPublisher;
+	private CountingView mView;
+	private PublishedController mController;
+	private int mHandle;
+	private Bitmap mBitmap;
+
+	/**
+	 * Counts the frames requested of it.
+	 */
+	private static class CountingView extends SVGView {
+		int requests;
+
+		CountingView(Context context) {
+			super(context);
+		}
+
+		@Override
+		public void invalidateBitmap() {
+			requests++;
+			super.invalidateBitmap();
+		}
+	}
+
+	/**
+	 * Draws the publisher's state, and counts how often it's acquired. Its
+	 * version can be made to lag behind the publisher's, as it does when a
+	 * frame reads it just before a publish finishes.
+	 */
+	private class PublishedController implements ITpsvgStateController,
+			ITpsvgVersionedController {
+		int acquisitions;
+		long staleVersion = -1;
+
+		public SVGElementState getElementState() {
+			acquisitions++;
+			return mPublisher.acquire();
+		}
+
+		public long getStateVersion() {
+			return staleVersion >= 0 ? staleVersion : mPublisher
+					.getPublishedVersion();
+		}
+
+		public boolean animElement(String id, int iteration, Path path,
+				Matrix matrix, Paint sroke, Paint fill) {
+			return true;
+		}
+
+		public void setRemainderWidthOrHeight(float remainderWidth,
+				float remainderHeight) {
+		}
+
+		public boolean animTextElement(String id, int iteration,
+				Matrix matrix, Paint strokePaint, Paint fillPaint,
+				Textstring text, float x, float y) {
+			return true;
+		}
+
+		public boolean arcParams(String id, Path path, float startAngle,
+				float sweepAngle, RectF bounds) {
+			return true;
+		}
+
+		public void setSourceDocumentWidth(int width) {
+		}
+
+		public void setSourceDocumentHeight(int height) {
+		}
+
+		public void onSVGPrivateData(String key, String value) {
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		Context context = getInstrumentation().getContext();
+		SVGParserRenderer image = new SVGParserRenderer(context,
+				new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+		mHandle = image.getElementHandle("_animBar");
+		assertTrue(mHandle >= 0);
+		mPublisher = new SVGStatePublisher(image);
+		mController = new PublishedController();
+		mView = new CountingView(context);
+		mView.setSVGRenderer(image, null);
+		mView.bindController(mController);
+		mView.measure(MeasureSpec.makeMeasureSpec(SIZE, MeasureSpec.EXACTLY),
+				MeasureSpec.makeMeasureSpec(SIZE, MeasureSpec.EXACTLY));
+		mView.layout(0, 0, SIZE, SIZE);
+		mPublisher.setView(mView);
+		mBitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mPublisher.setView(null);
+		mBitmap.recycle();
+		super.tearDown();
+	}
+
+	private void publishAlpha(float alpha) {
+		mPublisher.edit().setAlpha(mHandle, alpha);
+		mPublisher.publish();
+	}
+
+	private void drawFrame() {
+		mView.draw(new Canvas(mBitmap));
+	}
+
+	public void testPublishesWhilePendingRequestOneFrame() {
+		publishAlpha(0.5f);
+		publishAlpha(0.25f);
+		publishAlpha(0.125f);
+		assertEquals(1, mView.requests);
+
+		SVGElementState state = mPublisher.acquire();
+		assertEquals(mPublisher.getPublishedVersion(), state.getVersion());
+	}
+
+	public void testPublishWithoutEditsRequestsNoFrame() {
+		publishAlpha(0.5f);
+		mPublisher.acquire();
+		mPublisher.publish();
+		assertEquals(1, mView.requests);
+	}
+
+	public void testPublishAfterAcquireRequestsAnotherFrame() {
+		publishAlpha(0.5f);
+		mPublisher.acquire();
+		publishAlpha(0.25f);
+		assertEquals(2, mView.requests);
+
+		SVGElementState state = mPublisher.acquire();
+		assertEquals(mPublisher.getPublishedVersion(), state.getVersion());
+	}
+
+	public void testFrameWithoutAcquireConsumesRequest() {
+		publishAlpha(0.5f);
+		mPublisher.onFrame();
+		publishAlpha(0.25f);
+		assertEquals(2, mView.requests);
+	}
+
+	public void testUnchangedFrameIsServedFromBitmap() {
+		publishAlpha(0.5f);
+		drawFrame();
+		assertEquals(1, mController.acquisitions);
+
+		// Nothing was published, so the bitmap is reused.
+		mView.invalidateBitmap();
+		drawFrame();
+		assertEquals(1, mController.acquisitions);
+	}
+
+	public void testSkippedFrameLetsNextPublishRequestFrame() {
+		publishAlpha(0.5f);
+		drawFrame();
+		assertEquals(1, mController.acquisitions);
+		long drawnVersion = mPublisher.getPublishedVersion();
+
+		// A publish whose version the next frame doesn't see yet: the frame
+		// is served from the bitmap, without acquiring the state.
+		mController.staleVersion = drawnVersion;
+		publishAlpha(0.25f);
+		int requests = mView.requests;
+		drawFrame();
+		assertEquals(1, mController.acquisitions);
+
+		// The skipped frame consumed the request, so the next publish makes
+		// another, and its frame draws the latest state.
+		mController.staleVersion = -1;
+		publishAlpha(0.125f);
+		assertEquals(requests + 1, mView.requests);
+		drawFrame();
+		assertEquals(2, mController.acquisitions);
+	}
+}
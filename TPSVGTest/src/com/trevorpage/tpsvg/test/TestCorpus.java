@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2013 Trevor Page
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.trevorpage.tpsvg.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.content.res.AssetManager;
+
+/**
+ * Reads the corpus of SVG documents that the benchmark, regression and
+ * allocation tests run over. The documents are in the assets/corpus
+ * directory of the test project. They were written for these tests, in the
+ * form Inkscape exports, rather than collected, so that they can be
+ * distributed with the project. Between them they cover large path-heavy
+ * icon sets, gradient- and pattern-heavy illustrations, and text.
+ */
+public class TestCorpus {
+
+	public static final String CORPUS_DIR = "corpus";
+	public static final String SVG_SUFFIX = ".svg";
+
+	private TestCorpus() {
+	}
+
+	/**
+	 * @return The names of the documents in the corpus, without the .svg
+	 *         suffix, in alphabetical order.
+	 */
+	public static List<String> getNames(AssetManager assets) throws IOException {
+		String[] files = assets.list(CORPUS_DIR);
+		Arrays.sort(files);
+		ArrayList<String> names = new ArrayList<String>();
+		for (String file : files) {
+			if (file.endsWith(SVG_SUFFIX)) {
+				names.add(file.substring(0, file.length() - SVG_SUFFIX.length()));
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Read a document from the corpus fully into memory.
+	 */
+	public static byte[] read(AssetManager assets, String name) throws IOException {
+		return readFully(assets.open(CORPUS_DIR + "/" + name + SVG_SUFFIX));
+	}
+
+	/**
+	 * Read a stream fully, and close it.
+	 */
+	public static byte[] readFully(InputStream stream) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		try {
+			int read;
+			while ((read = stream.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			stream.close();
+		}
+		return out.toByteArray();
+	}
+}